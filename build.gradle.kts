@@ -99,6 +99,36 @@ tasks.compileJava {
 	options.release.set( javaCompatibility )
 }
 
+//---- jmh --------------------------------------------------------------------
+
+// JMH benchmarks in src/jmh/java (run with: gradlew jmh)
+val jmh by sourceSets.creating {
+	compileClasspath += sourceSets.main.get().output
+	runtimeClasspath += sourceSets.main.get().output
+}
+
+configurations {
+	getByName( jmh.implementationConfigurationName ).extendsFrom( implementation.get() )
+	getByName( jmh.runtimeOnlyConfigurationName ).extendsFrom( runtimeOnly.get() )
+}
+
+dependencies {
+	val jmhVersion = "1.36"
+	jmh.implementationConfigurationName( "org.openjdk.jmh:jmh-core:${jmhVersion}" )
+	jmh.annotationProcessorConfigurationName( "org.openjdk.jmh:jmh-generator-annprocess:${jmhVersion}" )
+}
+
+tasks.named<JavaCompile>( jmh.compileJavaTaskName ) {
+	options.release.set( javaCompatibility )
+}
+
+tasks.register<JavaExec>( "jmh" ) {
+	group = "verification"
+	description = "Runs the JMH benchmarks."
+	classpath = jmh.runtimeClasspath
+	mainClass.set( "org.openjdk.jmh.Main" )
+}
+
 application {
 	mainClass.set( "at.crowdware.bookdesigner.BookDesignerApp" )
 }
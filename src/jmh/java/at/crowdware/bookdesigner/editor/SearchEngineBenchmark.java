@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2018 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.editor;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import at.crowdware.bookdesigner.util.Range;
+
+/**
+ * Compares find-all of the search engines with the previous implementation
+ * (String.indexOf(), StringUtils.indexOfIgnoreCase() and Pattern.compile()
+ * on every search) on a generated book-sized markdown text.
+ *
+ * Run with: gradlew jmh
+ *
+ * @author Karl Tauber
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchEngineBenchmark
+{
+	private static final String[] WORDS = {
+		"the", "The", "and", "of", "to", "a", "in", "was", "he", "she", "it", "that",
+		"book", "Book", "chapter", "designer", "BookDesigner", "markdown", "*emphasis*",
+		"**strong**", "`code`", "river", "mountain", "evening", "morning", "light",
+		"Stra\u00dfe", "caf\u00e9", "na\u00efve", "\u00c4rger", "\u00fcber",
+	};
+
+	@Param({ "1000000" })
+	public int textLength;
+
+	@Param({ "the", "designer", "evening light" })
+	public String find;
+
+	private String text;
+	private String regex;
+
+	@Setup
+	public void setup() {
+		text = generateText(textLength);
+		regex = Pattern.quote(find).replace(" ", "\\E\\s+\\Q");
+	}
+
+	//---- literal, match case ------------------------------------------------
+
+	@Benchmark
+	public int literalMatchCaseOld() {
+		int count = 0;
+		int fromIndex = 0;
+		int index;
+		while ((index = text.indexOf(find, fromIndex)) >= 0) {
+			count++;
+			fromIndex = index + find.length();
+		}
+		return count;
+	}
+
+	@Benchmark
+	public int literalMatchCaseNew() {
+		return findAll(new LiteralSearchEngine(find, true));
+	}
+
+	//---- literal, ignore case -----------------------------------------------
+
+	@Benchmark
+	public int literalIgnoreCaseOld() {
+		int count = 0;
+		int fromIndex = 0;
+		int index;
+		while ((index = StringUtils.indexOfIgnoreCase(text, find, fromIndex)) >= 0) {
+			count++;
+			fromIndex = index + find.length();
+		}
+		return count;
+	}
+
+	@Benchmark
+	public int literalIgnoreCaseNew() {
+		return findAll(new LiteralSearchEngine(find, false));
+	}
+
+	//---- regex, ignore case -------------------------------------------------
+
+	@Benchmark
+	public int regexOld() {
+		Pattern pattern = Pattern.compile("(?i)" + regex);
+		Matcher matcher = pattern.matcher(text);
+		int count = 0;
+		while (matcher.find())
+			count++;
+		return count;
+	}
+
+	@Benchmark
+	public int regexNew() {
+		return findAll(new RegexSearchEngine(RegexSearchEngine.compile(regex, false)));
+	}
+
+	//---- utility ------------------------------------------------------------
+
+	private int findAll(SearchEngine engine) {
+		int count = 0;
+		int fromIndex = 0;
+		Range hit;
+		while ((hit = engine.find(text, fromIndex)) != null) {
+			count++;
+			fromIndex = HitFinder.nextFromIndex(hit);
+		}
+		return count;
+	}
+
+	/**
+	 * Generates a markdown text with headings and paragraphs of random words.
+	 */
+	private static String generateText(int length) {
+		Random random = new Random(42);
+		StringBuilder buf = new StringBuilder(length + 100);
+		int chapter = 1;
+		while (buf.length() < length) {
+			if (random.nextInt(50) == 0)
+				buf.append("# Chapter ").append(chapter++).append("\n\n");
+
+			int wordCount = 20 + random.nextInt(100);
+			for (int i = 0; i < wordCount; i++) {
+				if (i > 0)
+					buf.append(random.nextInt(12) == 0 ? ", " : " ");
+				buf.append(WORDS[random.nextInt(WORDS.length)]);
+			}
+			buf.append(".\n\n");
+		}
+		return buf.toString();
+	}
+}
@@ -43,6 +43,7 @@ import javafx.beans.property.ReadOnlyObjectProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
 import javafx.collections.ObservableList;
 import javafx.scene.Node;
 import javafx.scene.control.Alert;
@@ -103,7 +104,7 @@ class FileEditor
 		ChangeListener previewTypeListener = (observable, oldValue, newValue) -> updatePreviewType();
 		ChangeListener<Boolean> stageFocusedListener = (observable, oldValue, newValue) -> {
 			if (newValue)
-				reload();
+				reload(false);
 		};
 
 		tab.setOnSelectionChanged(e -> {
@@ -149,6 +150,29 @@ class FileEditor
 		return markdownEditorPane;
 	}
 
+	/**
+	 * Selects the given range in the editor.
+	 * If the editor has not yet been created (tab was never active),
+	 * the range is selected as soon as it is created.
+	 */
+	void selectRange(int anchor, int caretPosition) {
+		if (markdownEditorPane != null) {
+			markdownEditorPane.selectRange(anchor, caretPosition);
+			return;
+		}
+
+		editor.addListener(new ChangeListener<MarkdownEditorPane>() {
+			@Override
+			public void changed(ObservableValue<? extends MarkdownEditorPane> observable,
+				MarkdownEditorPane oldEditor, MarkdownEditorPane newEditor)
+			{
+				editor.removeListener(this);
+				if (newEditor != null)
+					Platform.runLater(() -> newEditor.selectRange(anchor, caretPosition));
+			}
+		});
+	}
+
 	// 'editor' property
 	private final ObjectProperty<MarkdownEditorPane> editor = new SimpleObjectProperty<>();
 	ReadOnlyObjectProperty<MarkdownEditorPane> editorProperty() { return editor; }
@@ -263,7 +287,7 @@ class FileEditor
 			return; // tab is already closed or no longer active
 
 		if (tab.getContent() != null) {
-			reload();
+			reload(false);
 			updatePreviewType();
 			markdownEditorPane.setVisible(true);
 			markdownEditorPane.requestFocus();
@@ -283,8 +307,7 @@ class FileEditor
 
 		// bind preview to editor
 		markdownPreviewPane.pathProperty().bind(pathProperty());
-		markdownPreviewPane.markdownTextProperty().bind(markdownEditorPane.markdownTextProperty());
-		markdownPreviewPane.markdownASTProperty().bind(markdownEditorPane.markdownASTProperty());
+		markdownPreviewPane.snapshotProperty().bind(markdownEditorPane.snapshotProperty());
 		markdownPreviewPane.editorSelectionProperty().bind(markdownEditorPane.selectionProperty());
 		markdownPreviewPane.scrollYProperty().bind(markdownEditorPane.scrollYProperty());
 
@@ -359,6 +382,7 @@ class FileEditor
 			markdownEditorPane.setReadOnly(readOnly);
 			markdownEditorPane.setMarkdown(markdown);
 			markdownEditorPane.getUndoManager().mark();
+			markdownEditorPane.textSaved();
 			
 			// Update preview visibility after loading file
 			Platform.runLater(() -> updatePreviewType());
@@ -419,6 +443,7 @@ class FileEditor
 			Files.write(path.get(), bytes);
 			lastModified = path.get().toFile().lastModified();
 			markdownEditorPane.getUndoManager().mark();
+			markdownEditorPane.textSaved();
 			return true;
 		} catch (IOException ex) {
 			Alert alert = mainWindow.createAlert(AlertType.ERROR,
@@ -429,9 +454,14 @@ class FileEditor
 		}
 	}
 
-	private void reload() {
+	/**
+	 * Reloads the file if it has been modified outside of the editor.
+	 * If force is true, the file is reloaded even if its modification time is unchanged
+	 * (file systems with coarse timestamps may not notice quick successive writes).
+	 */
+	void reload(boolean force) {
 		Path path = this.path.get();
-		if (path == null || lastModified == path.toFile().lastModified())
+		if (path == null || (!force && lastModified == path.toFile().lastModified()))
 			return;
 		lastModified = path.toFile().lastModified();
 
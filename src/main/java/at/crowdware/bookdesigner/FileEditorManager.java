@@ -28,6 +28,7 @@
 package at.crowdware.bookdesigner;
 
 import java.io.File;
+import java.util.Collection;
 import java.util.Collections;
 import at.crowdware.bookdesigner.projects.ProjectManager;
 import at.crowdware.bookdesigner.util.Utils;
@@ -47,6 +48,11 @@ public class FileEditorManager
 		fileEditorTabPane.openEditors(Collections.singletonList(file), 0, -1);
 	}
 
+	public void openEditor(File file, int selectionStart, int selectionEnd) {
+		FileEditor[] fileEditors = fileEditorTabPane.openEditors(Collections.singletonList(file), 0, -1);
+		fileEditors[0].selectRange(selectionStart, selectionEnd);
+	}
+
 	public void openPreviewEditor(File file) {
 		if (Utils.isImage(file.getName()))
 			return;
@@ -54,6 +60,14 @@ public class FileEditorManager
 		fileEditorTabPane.openEditors(Collections.singletonList(file), 0, 0);
 	}
 
+	public boolean saveAllEditors() {
+		return fileEditorTabPane.saveAllEditors();
+	}
+
+	public void reloadEditors(Collection<File> files) {
+		fileEditorTabPane.reloadEditors(files);
+	}
+
 	public boolean canOpenAnotherProject() {
 		if (ProjectManager.getActiveProject() == null)
 			return true; // keep open editors
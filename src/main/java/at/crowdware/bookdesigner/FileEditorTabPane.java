@@ -33,6 +33,7 @@ import java.io.File;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.prefs.Preferences;
 import javafx.beans.property.ReadOnlyBooleanProperty;
@@ -335,6 +336,17 @@ class FileEditorTabPane
 		return success;
 	}
 
+	/**
+	 * Reloads the editors of the given files (e.g. after they have been changed by project replace).
+	 */
+	void reloadEditors(Collection<File> files) {
+		for (FileEditor fileEditor : getAllEditors()) {
+			Path path = fileEditor.getPath();
+			if (path != null && files.contains(path.toFile()))
+				fileEditor.reload(true);
+		}
+	}
+
 	boolean canCloseEditor(FileEditor fileEditor) {
 		if (!fileEditor.isModified())
 			return true;
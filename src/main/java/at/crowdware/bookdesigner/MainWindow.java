@@ -54,6 +54,7 @@ import java.util.prefs.Preferences;
 import at.crowdware.bookdesigner.dialogs.ProjectDialog;
 import at.crowdware.bookdesigner.model.ProjectData;
 import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
 import javafx.beans.binding.Bindings;
 import javafx.beans.binding.BooleanBinding;
 import javafx.beans.property.BooleanProperty;
@@ -83,6 +84,7 @@ import org.controlsfx.control.PopOver;
 import org.controlsfx.control.PopOver.ArrowLocation;
 import at.crowdware.bookdesigner.editor.MarkdownEditorPane;
 import at.crowdware.bookdesigner.editor.SmartEdit;
+import at.crowdware.bookdesigner.editor.ThumbnailCache;
 import at.crowdware.bookdesigner.options.MarkdownExtensionsPane;
 import at.crowdware.bookdesigner.options.Options;
 import at.crowdware.bookdesigner.options.Options.RendererType;
@@ -116,6 +118,15 @@ class MainWindow
 		fileEditorManager = new FileEditorManager(fileEditorTabPane);
 		projectPane = new ProjectPane(fileEditorManager);
 
+		// generate thumbnails for embedded images in background when a project is opened
+		InvalidationListener generateThumbnails = e -> {
+			if (Options.isShowImagesEmbedded())
+				ThumbnailCache.generateThumbnails(ProjectManager.getActiveProject());
+		};
+		ProjectManager.activeProjectProperty().addListener(generateThumbnails);
+		Options.showImagesEmbeddedProperty().addListener(generateThumbnails);
+		generateThumbnails.invalidated(null);
+
 		Preferences state = BookDesignerApp.getState();
 		double dividerPosition = state.getDouble("projectPaneDividerPosition", 0.2);
 
@@ -259,6 +270,10 @@ class MainWindow
 				e -> getActiveEditor().findNextPrevious(false),
 				activeFileEditorIsNull);
 
+		Action editFindInProjectAction = new Action(Messages.get("MainWindow.editFindInProjectAction"), "Shortcut+Shift+H", SEARCH,
+				e -> projectPane.findInProject(),
+				Bindings.isNull(ProjectManager.activeProjectProperty()));
+
 		Action editFormatAllAction = new Action(Messages.get("MainWindow.editFormatAll"), "Shortcut+Shift+F", null,
 				e -> getActiveSmartEdit().format(false, null),
 				activeFileEditorIsNull);
@@ -382,6 +397,8 @@ class MainWindow
 				editFindNextAction,
 				editFindPreviousAction,
 				null,
+				editFindInProjectAction,
+				null,
 				editFormatAllAction,
 				editFormatSelectionAction);
 
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2015 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.controls;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javafx.application.Platform;
+import javafx.scene.Node;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import org.fxmisc.richtext.GenericStyledArea;
+import org.fxmisc.richtext.model.TwoDimensional.Bias;
+import at.crowdware.bookdesigner.util.Range;
+import at.crowdware.bookdesigner.util.Utils;
+
+/**
+ * Paints markers (e.g. find hits or spelling errors) into the track
+ * of the vertical scroll bar of a text area.
+ *
+ * Markers are grouped in layers, which are painted in the order they were added.
+ * Markers that are painted at the same or adjacent pixel rows are merged.
+ * Marker offsets are mapped to lines (paragraphs) only when painting,
+ * and repainting is deferred so that multiple changes are painted only once.
+ *
+ * @author Karl Tauber
+ */
+public class OverviewRuler
+{
+	private static final int[] NO_OFFSETS = {};
+
+	private final GenericStyledArea<?, ?, ?> textArea;
+	private final List<Layer> layers = new ArrayList<>();
+	private Canvas canvas;
+	private boolean[] markedRows = new boolean[0];
+	private boolean repaintPending;
+
+	public OverviewRuler(GenericStyledArea<?, ?, ?> textArea) {
+		this.textArea = textArea;
+	}
+
+	public Layer addLayer(Color color) {
+		Layer layer = new Layer(color);
+		layers.add(layer);
+		return layer;
+	}
+
+	public void removeLayer(Layer layer) {
+		if (layers.remove(layer))
+			repaintLater();
+	}
+
+	private void repaintLater() {
+		if (repaintPending)
+			return;
+
+		repaintPending = true;
+		Platform.runLater(() -> {
+			repaintPending = false;
+			repaint();
+		});
+	}
+
+	private void repaint() {
+		if (canvas == null) {
+			boolean hasMarkers = false;
+			for (Layer layer : layers)
+				hasMarkers |= (layer.offsets.length > 0);
+			if (!hasMarkers || !install())
+				return;
+		}
+
+		double width = canvas.getWidth();
+		double height = canvas.getHeight();
+		GraphicsContext gc = canvas.getGraphicsContext2D();
+		gc.clearRect(0, 0, width, height);
+
+		int rowCount = (int) height;
+		if (rowCount <= 0)
+			return;
+		if (markedRows.length < rowCount)
+			markedRows = new boolean[rowCount];
+
+		int length = textArea.getLength();
+		int lineCount = textArea.getParagraphs().size();
+		for (Layer layer : layers) {
+			if (layer.offsets.length == 0)
+				continue;
+
+			// compute marked pixel rows
+			// (offsetToPosition() is O(log n) because paragraphs are kept in a tree)
+			boolean[] markedRows = this.markedRows;
+			Arrays.fill(markedRows, 0, rowCount, false);
+			for (int offset : layer.offsets) {
+				int line = textArea.offsetToPosition(Math.min(offset, length), Bias.Forward).getMajor();
+				markedRows[(int) ((long) rowCount * Math.min(line, lineCount - 1) / lineCount)] = true;
+			}
+
+			// paint adjacent rows as one marker
+			gc.setFill(layer.color);
+			for (int y = 0; y < rowCount; y++) {
+				if (!markedRows[y])
+					continue;
+
+				int y2 = y + 1;
+				while (y2 < rowCount && markedRows[y2])
+					y2++;
+				gc.fillRect(0, y, width, y2 - y);
+				y = y2;
+			}
+		}
+	}
+
+	private boolean install() {
+		if (textArea.getParent() == null)
+			return false;
+
+		ScrollBar vScrollBar = Utils.findVScrollBar(textArea.getParent());
+		if (vScrollBar == null)
+			return false;
+
+		Node track = vScrollBar.lookup(".track");
+		if (!(track instanceof Pane))
+			return false;
+
+		Pane trackPane = (Pane) track;
+		canvas = new Canvas();
+		canvas.setManaged(false);
+		canvas.setMouseTransparent(true);
+		canvas.widthProperty().bind(trackPane.widthProperty());
+		canvas.heightProperty().bind(trackPane.heightProperty());
+		canvas.widthProperty().addListener(ob -> repaintLater());
+		canvas.heightProperty().addListener(ob -> repaintLater());
+		trackPane.getChildren().add(canvas);
+		return true;
+	}
+
+	//---- class Layer --------------------------------------------------------
+
+	public class Layer
+	{
+		private final Color color;
+		private int[] offsets = NO_OFFSETS;
+
+		private Layer(Color color) {
+			this.color = color;
+		}
+
+		/**
+		 * Sets the markers of this layer. The ranges are text area offsets.
+		 */
+		public void setMarkers(List<Range> ranges) {
+			if (ranges.isEmpty()) {
+				if (offsets.length == 0)
+					return;
+				offsets = NO_OFFSETS;
+			} else {
+				int[] offsets = new int[ranges.size()];
+				for (int i = 0; i < offsets.length; i++)
+					offsets[i] = Math.max(ranges.get(i).start, 0);
+				this.offsets = offsets;
+			}
+			repaintLater();
+		}
+
+		public void clear() {
+			setMarkers(List.of());
+		}
+	}
+}
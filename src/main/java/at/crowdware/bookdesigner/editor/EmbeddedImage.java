@@ -27,39 +27,23 @@
 
 package at.crowdware.bookdesigner.editor;
 
-import java.lang.ref.SoftReference;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.function.BiConsumer;
-import java.util.function.Predicate;
-import javafx.scene.control.IndexRange;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Polyline;
-import org.fxmisc.richtext.model.Paragraph;
-import org.fxmisc.richtext.model.ReadOnlyStyledDocument;
-import org.reactfx.util.Either;
-import com.vladsch.flexmark.ast.ImageRef;
-import com.vladsch.flexmark.ast.LinkNodeBase;
-import com.vladsch.flexmark.util.ast.Node;
-import com.vladsch.flexmark.util.ast.NodeVisitor;
-import com.vladsch.flexmark.util.ast.Visitor;
+import javafx.scene.shape.Rectangle;
 
 /**
  * @author Karl Tauber
  */
 class EmbeddedImage
 {
-	private static final int MAX_SIZE = 200;
+	static final int MAX_SIZE = 200;
 	private static final int ERROR_SIZE = 16;
-
-	private static final HashMap<String, SoftReference<Image>> imageCache = new HashMap<>();
+	private static final int PLACEHOLDER_SIZE = 16;
 
 	final Path basePath;
 	final String url;
@@ -81,17 +65,31 @@ class EmbeddedImage
 			return createErrorNode();
 		}
 
-		// load image
-		Image image = loadImage(imageUrl);
+		// use cached image
+		Image image = EmbeddedImageLoader.getCached(imageUrl, MAX_SIZE);
+		if (image != null)
+			return createImageNode(image);
+
+		// show placeholder while image is loaded in background
+		StackPane pane = new StackPane(createPlaceholderNode());
+		EmbeddedImageLoader.load(imageUrl, MAX_SIZE, loadedImage -> {
+			pane.getChildren().setAll(createImageNode(loadedImage));
+		});
+		return pane;
+	}
+
+	private javafx.scene.Node createImageNode(Image image) {
 		if (image.isError())
 			return createErrorNode(); // loading failed
 
-		// create image view
-		ImageView view = new ImageView(image);
-		view.setPreserveRatio(true);
-		view.setFitWidth(Math.min(image.getWidth(),MAX_SIZE));
-		view.setFitHeight(Math.min(image.getHeight(),MAX_SIZE));
-		return view;
+		// image is already scaled down to MAX_SIZE
+		return new ImageView(image);
+	}
+
+	private javafx.scene.Node createPlaceholderNode() {
+		Rectangle placeholderNode = new Rectangle(PLACEHOLDER_SIZE, PLACEHOLDER_SIZE);
+		placeholderNode.setFill(Color.rgb(0, 0, 0, 0.1)); //TODO use CSS
+		return placeholderNode;
 	}
 
 	private javafx.scene.Node createErrorNode() {
@@ -101,97 +99,4 @@ class EmbeddedImage
 		errorNode.setStroke(Color.RED); //TODO use CSS
 		return errorNode;
 	}
-
-	private static Image loadImage(String imageUrl) {
-		cleanUpImageCache();
-
-		Image image = null;
-		SoftReference<Image> imageRef = imageCache.get(imageUrl);
-		if (imageRef != null)
-			image = imageRef.get();
-		if (image == null) {
-			image = new Image(imageUrl);
-			imageCache.put(imageUrl, new SoftReference<>(image));
-		}
-		return image;
-	}
-
-	private static void cleanUpImageCache() {
-		Iterator<SoftReference<Image>> it = imageCache.values().iterator();
-		while (it.hasNext()) {
-			if (it.next().get() == null)
-				it.remove();
-		}
-	}
-
-	static void replaceImageSegments(MarkdownTextArea textArea, Node astRoot, Path basePath) {
-		// remember current selection (because textArea.replace() changes selection)
-		IndexRange selection = textArea.getSelection();
-
-		// replace first character of image markup with an EmbeddedImage object
-		HashSet<EmbeddedImage> addedImages = new HashSet<>();
-		NodeVisitor visitor = new NodeVisitor(Collections.emptyList()) {
-			@Override
-			protected void processNode(Node node, boolean withChildren, BiConsumer<Node, Visitor<Node>> processor) {
-				if (node instanceof com.vladsch.flexmark.ast.Image ||
-					node instanceof ImageRef)
-				{
-					LinkNodeBase linkNode = (node instanceof ImageRef)
-						? ((ImageRef)node).getReferenceNode(astRoot.getDocument())
-						: (com.vladsch.flexmark.ast.Image) node;
-					if (linkNode == null)
-						return; // reference not found
-
-					String url = linkNode.getUrl().toString();
-					if (url.startsWith("http:") || url.startsWith("https:"))
-						return; // do not embed external images
-
-					int start = node.getStartOffset();
-					int end = start + 1;
-
-					EmbeddedImage embeddedImage = new EmbeddedImage(basePath,
-							url, textArea.getText(start, end));
-					addedImages.add(embeddedImage);
-
-					textArea.replace(start, end, ReadOnlyStyledDocument.fromSegment(
-							Either.right(embeddedImage),
-							Collections.<String>emptyList(),
-							Collections.<String>emptyList(),
-							textArea.getSegOps()));
-				} else
-					visitChildren(node);
-			}
-		};
-		visitor.visit(astRoot);
-
-		// remove obsolete EmbeddedImage objects
-		removeImageSegments(textArea, image -> !addedImages.contains(image));
-
-		// restore selection
-		if (!selection.equals(textArea.getSelection()))
-			textArea.selectRange(selection.getStart(), selection.getEnd());
-	}
-
-	static void removeAllImageSegments(MarkdownTextArea textArea) {
-		removeImageSegments(textArea, image -> true);
-	}
-
-	private static void removeImageSegments(MarkdownTextArea textArea, Predicate<EmbeddedImage> filter) {
-		HashMap<Integer, String> removedImages = new HashMap<>();
-		int index = 0;
-		for (Paragraph<?, Either<String, EmbeddedImage>, ?> par : textArea.getDocument().getParagraphs()) {
-			for (Either<String, EmbeddedImage> seg : par.getSegments()) {
-				if (seg.isRight() && filter.test(seg.getRight()))
-					removedImages.put(index, seg.getRight().text);
-
-				index += seg.isLeft() ? seg.getLeft().length() : seg.getRight().text.length();
-			}
-			index++;
-		}
-		for (Map.Entry<Integer, String> e : removedImages.entrySet()) {
-			int start = e.getKey();
-			String text = e.getValue();
-			textArea.replaceText(start, start + text.length(), text);
-		}
-	}
 }
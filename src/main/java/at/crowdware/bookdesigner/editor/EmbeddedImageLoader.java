@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2018 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.editor;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import at.crowdware.bookdesigner.projects.ProjectManager;
+import at.crowdware.bookdesigner.util.ImageCache;
+
+/**
+ * Loads images for embedded images in background threads.
+ *
+ * Images are decoded at (at most) the given size, not at full resolution,
+ * so that high-resolution photos need only a fraction of the memory.
+ * Loaded images are kept in the shared image cache.
+ * Scaled images of project files are also stored in the on-disk thumbnail cache.
+ *
+ * All methods must be invoked on the FX thread.
+ *
+ * @author Karl Tauber
+ */
+class EmbeddedImageLoader
+{
+	private static final int THREAD_COUNT = 2;
+
+	private static final HashMap<String, List<Consumer<Image>>> pendingLoads = new HashMap<>();
+
+	private static ExecutorService executor;
+
+	/**
+	 * Returns the cached image for the given URL, or null.
+	 * Returns also null if the image file has been modified since it was loaded.
+	 */
+	static Image getCached(String imageUrl, int maxSize) {
+		return ImageCache.getShared().get(cacheKey(imageUrl, maxSize), lastModified(imageUrl));
+	}
+
+	/**
+	 * Loads the image for the given URL in a background thread
+	 * and passes it to the consumer (on the FX thread).
+	 * The consumer is invoked immediately if the image is cached.
+	 * Loading failed if Image.isError() returns true.
+	 */
+	static void load(String imageUrl, int maxSize, Consumer<Image> consumer) {
+		Image image = getCached(imageUrl, maxSize);
+		if (image != null) {
+			consumer.accept(image);
+			return;
+		}
+
+		String key = cacheKey(imageUrl, maxSize);
+		File project = ProjectManager.getActiveProject();
+		File file = toFile(imageUrl);
+
+		// same image already loading?
+		List<Consumer<Image>> consumers = pendingLoads.get(key);
+		if (consumers != null) {
+			consumers.add(consumer);
+			return;
+		}
+		consumers = new ArrayList<>();
+		consumers.add(consumer);
+		pendingLoads.put(key, consumers);
+
+		getExecutor().execute(() -> {
+			Image loadedImage = null;
+			try {
+				// get modification time before loading so that a concurrent modification invalidates the image
+				long lastModified = lastModified(imageUrl);
+				loadedImage = loadImage(imageUrl, maxSize, project, file);
+				ImageCache.getShared().put(key, loadedImage, lastModified);
+			} finally {
+				// always notify (and remove) the pending consumers, even if loading failed
+				Image result = (loadedImage != null) ? loadedImage : errorImage();
+				Platform.runLater(() -> {
+					for (Consumer<Image> c : pendingLoads.remove(key))
+						c.accept(result);
+				});
+			}
+		});
+	}
+
+	private static String cacheKey(String imageUrl, int maxSize) {
+		return maxSize + ":" + imageUrl;
+	}
+
+	/**
+	 * Loads the image (invoked in background thread).
+	 * Uses the thumbnail from the thumbnail cache if available.
+	 * Otherwise the image is decoded at its original size if it fits into maxSize,
+	 * otherwise at the largest size that fits (preserving the ratio).
+	 * Scaled images of project files are stored in the thumbnail cache.
+	 */
+	private static Image loadImage(String imageUrl, int maxSize, File project, File file) {
+		// thumbnails are small and cheaper to read than the original image
+		if (project != null && file != null) {
+			Image thumbnail = ThumbnailCache.loadThumbnail(project, file, maxSize);
+			if (thumbnail != null)
+				return thumbnail;
+		}
+
+		double[] size = readImageSize(imageUrl);
+		if (size != null && size[0] <= maxSize && size[1] <= maxSize)
+			return new Image(imageUrl, false);
+
+		// if the original size is unknown, this may scale up small images
+		Image image = new Image(imageUrl, maxSize, maxSize, true, true, false);
+		if (project != null && file != null && !image.isError())
+			ThumbnailCache.saveThumbnail(project, file, maxSize, image);
+		return image;
+	}
+
+	/**
+	 * Returns an image where Image.isError() returns true.
+	 */
+	private static Image errorImage() {
+		return new Image(new ByteArrayInputStream(new byte[0]));
+	}
+
+	/**
+	 * Reads the image size from the image file header without decoding the image.
+	 * Returns null if the image format is not supported by ImageIO.
+	 */
+	static double[] readImageSize(String imageUrl) {
+		try (InputStream in = new URL(imageUrl).openStream();
+			 ImageInputStream imageIn = ImageIO.createImageInputStream(in))
+		{
+			if (imageIn == null)
+				return null;
+
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(imageIn);
+			if (!readers.hasNext())
+				return null;
+
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(imageIn, true, true);
+				return new double[] { reader.getWidth(0), reader.getHeight(0) };
+			} finally {
+				reader.dispose();
+			}
+		} catch (IOException | RuntimeException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the modification time of local image files, or zero.
+	 */
+	private static long lastModified(String imageUrl) {
+		File file = toFile(imageUrl);
+		return (file != null) ? file.lastModified() : 0;
+	}
+
+	/**
+	 * Returns the file of local images, or null.
+	 */
+	private static File toFile(String imageUrl) {
+		if (!imageUrl.startsWith("file:"))
+			return null;
+
+		try {
+			return new File(new URI(imageUrl));
+		} catch (URISyntaxException | IllegalArgumentException ex) {
+			return null;
+		}
+	}
+
+	private static ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(THREAD_COUNT, runnable -> {
+				Thread thread = new Thread(runnable, "BookDesigner image loader");
+				thread.setDaemon(true); // allow quitting app without shutting down executor
+				return thread;
+			});
+		}
+		return executor;
+	}
+}
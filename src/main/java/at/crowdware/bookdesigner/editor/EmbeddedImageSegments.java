@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2018 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.editor;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import javafx.scene.control.IndexRange;
+import org.fxmisc.richtext.model.Paragraph;
+import org.fxmisc.richtext.model.ReadOnlyStyledDocument;
+import org.reactfx.util.Either;
+import com.vladsch.flexmark.ast.ImageRef;
+import com.vladsch.flexmark.ast.LinkNodeBase;
+import com.vladsch.flexmark.util.ast.Node;
+import com.vladsch.flexmark.util.ast.NodeVisitor;
+import com.vladsch.flexmark.util.ast.Visitor;
+
+/**
+ * Keeps the embedded image segments of a text area in sync with the image markup.
+ *
+ * The first character of each image markup is replaced with an EmbeddedImage segment.
+ * The offsets of these segments are tracked on text changes, so that after parsing,
+ * only segments of image markup that was added, removed or changed need to be
+ * replaced in the document.
+ *
+ * @author Karl Tauber
+ */
+class EmbeddedImageSegments
+{
+	private final MarkdownTextArea textArea;
+
+	// embedded image segments in the document, sorted by offset
+	private final ArrayList<ImageSegment> segments = new ArrayList<>();
+
+	EmbeddedImageSegments(MarkdownTextArea textArea) {
+		this.textArea = textArea;
+	}
+
+	/**
+	 * Updates the segment offsets after a text change.
+	 * Segments in the removed text no longer exist.
+	 */
+	void textChanged(int position, int removedLength, int insertedLength) {
+		int removedEnd = position + removedLength;
+		int delta = insertedLength - removedLength;
+
+		int i = firstSegmentAtOrAfter(position);
+		int removeEnd = i;
+		while (removeEnd < segments.size() && segments.get(removeEnd).offset < removedEnd)
+			removeEnd++;
+		if (removeEnd > i)
+			segments.subList(i, removeEnd).clear();
+
+		if (delta != 0) {
+			for (int j = i; j < segments.size(); j++)
+				segments.get(j).offset += delta;
+		}
+	}
+
+	/**
+	 * Replaces the first character of all image markup with EmbeddedImage segments
+	 * and removes segments of removed image markup.
+	 * Segments of unchanged image markup are not touched.
+	 */
+	void update(Node astRoot, Path basePath) {
+		List<ImageMarkup> markups = collectImageMarkup(astRoot);
+
+		// compare current segments with image markup (both are sorted by offset)
+		ArrayList<ImageSegment> newSegments = new ArrayList<>(markups.size());
+		ArrayList<ImageSegment> removedSegments = new ArrayList<>();
+		ArrayList<ImageMarkup> addedMarkups = new ArrayList<>();
+		int segmentCount = segments.size();
+		int markupCount = markups.size();
+		int i = 0;
+		int j = 0;
+		while (i < segmentCount || j < markupCount) {
+			ImageSegment segment = (i < segmentCount) ? segments.get(i) : null;
+			ImageMarkup markup = (j < markupCount) ? markups.get(j) : null;
+
+			if (markup == null || (segment != null && segment.offset < markup.offset)) {
+				removedSegments.add(segment);
+				i++;
+			} else if (segment == null || markup.offset < segment.offset) {
+				addedMarkups.add(markup);
+				j++;
+			} else {
+				// same offset
+				if (segment.image.url.equals(markup.url) && Objects.equals(segment.image.basePath, basePath))
+					newSegments.add(segment);
+				else
+					addedMarkups.add(markup); // replaces existing segment
+				i++;
+				j++;
+			}
+		}
+
+		if (removedSegments.isEmpty() && addedMarkups.isEmpty())
+			return;
+
+		// remember current selection (because textArea.replace() changes selection)
+		IndexRange selection = textArea.getSelection();
+
+		// replacing does not change the text length, so the order does not matter
+		for (ImageSegment segment : removedSegments) {
+			int start = segment.offset;
+			textArea.replaceText(start, start + segment.image.text.length(), segment.image.text);
+		}
+		for (ImageMarkup markup : addedMarkups) {
+			int start = markup.offset;
+			int end = start + 1;
+
+			EmbeddedImage embeddedImage = new EmbeddedImage(basePath,
+					markup.url, textArea.getText(start, end));
+
+			textArea.replace(start, end, ReadOnlyStyledDocument.fromSegment(
+					Either.right(embeddedImage),
+					Collections.<String>emptyList(),
+					Collections.<String>emptyList(),
+					textArea.getSegOps()));
+
+			newSegments.add(new ImageSegment(start, embeddedImage));
+		}
+
+		newSegments.sort(Comparator.comparingInt(segment -> segment.offset));
+		segments.clear();
+		segments.addAll(newSegments);
+
+		// restore selection
+		if (!selection.equals(textArea.getSelection()))
+			textArea.selectRange(selection.getStart(), selection.getEnd());
+	}
+
+	/**
+	 * Removes all EmbeddedImage segments from the document.
+	 * Scans the whole document (instead of using the tracked offsets) to
+	 * also catch segments that were restored by undo.
+	 */
+	void removeAll() {
+		segments.clear();
+
+		HashMap<Integer, String> removedImages = new HashMap<>();
+		int index = 0;
+		for (Paragraph<?, Either<String, EmbeddedImage>, ?> par : textArea.getDocument().getParagraphs()) {
+			for (Either<String, EmbeddedImage> seg : par.getSegments()) {
+				if (seg.isRight())
+					removedImages.put(index, seg.getRight().text);
+
+				index += seg.isLeft() ? seg.getLeft().length() : seg.getRight().text.length();
+			}
+			index++;
+		}
+		for (Map.Entry<Integer, String> e : removedImages.entrySet()) {
+			int start = e.getKey();
+			String text = e.getValue();
+			textArea.replaceText(start, start + text.length(), text);
+		}
+	}
+
+	private int firstSegmentAtOrAfter(int offset) {
+		int low = 0;
+		int high = segments.size() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (segments.get(mid).offset < offset)
+				low = mid + 1;
+			else
+				high = mid - 1;
+		}
+		return low;
+	}
+
+	private static List<ImageMarkup> collectImageMarkup(Node astRoot) {
+		ArrayList<ImageMarkup> markups = new ArrayList<>();
+		NodeVisitor visitor = new NodeVisitor(Collections.emptyList()) {
+			@Override
+			protected void processNode(Node node, boolean withChildren, BiConsumer<Node, Visitor<Node>> processor) {
+				if (node instanceof com.vladsch.flexmark.ast.Image ||
+					node instanceof ImageRef)
+				{
+					LinkNodeBase linkNode = (node instanceof ImageRef)
+						? ((ImageRef)node).getReferenceNode(astRoot.getDocument())
+						: (com.vladsch.flexmark.ast.Image) node;
+					if (linkNode == null)
+						return; // reference not found
+
+					String url = linkNode.getUrl().toString();
+					if (url.startsWith("http:") || url.startsWith("https:"))
+						return; // do not embed external images
+
+					markups.add(new ImageMarkup(node.getStartOffset(), url));
+				} else
+					visitChildren(node);
+			}
+		};
+		visitor.visit(astRoot);
+		return markups;
+	}
+
+	//---- class ImageSegment -------------------------------------------------
+
+	private static class ImageSegment
+	{
+		int offset;
+		final EmbeddedImage image;
+
+		ImageSegment(int offset, EmbeddedImage image) {
+			this.offset = offset;
+			this.image = image;
+		}
+	}
+
+	//---- class ImageMarkup --------------------------------------------------
+
+	private static class ImageMarkup
+	{
+		final int offset;
+		final String url;
+
+		ImageMarkup(int offset, String url) {
+			this.offset = offset;
+			this.url = url;
+		}
+	}
+}
@@ -42,24 +42,26 @@ import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.regex.Matcher;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
+import javafx.application.Platform;
 import javafx.beans.property.ReadOnlyBooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.scene.Node;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
-import javafx.scene.control.ScrollBar;
 import javafx.scene.control.Tooltip;
-import javafx.scene.layout.Region;
-import org.apache.commons.lang3.StringUtils;
+import javafx.scene.paint.Color;
 import org.controlsfx.control.textfield.CustomTextField;
 import org.fxmisc.richtext.MultiChangeBuilder;
-import org.fxmisc.richtext.model.TwoDimensional.Bias;
 import org.fxmisc.wellbehaved.event.Nodes;
 import at.crowdware.bookdesigner.BookDesignerApp;
 import at.crowdware.bookdesigner.Messages;
+import at.crowdware.bookdesigner.controls.OverviewRuler;
+import at.crowdware.bookdesigner.options.Options;
 import at.crowdware.bookdesigner.util.PrefsBooleanProperty;
 import at.crowdware.bookdesigner.util.Range;
 import at.crowdware.bookdesigner.util.Utils;
@@ -81,16 +83,33 @@ class FindReplacePane
 	private static PrefsBooleanProperty regex = new PrefsBooleanProperty(
 			BookDesignerApp.getState(), "findRegex", false);
 
+	// texts longer than this are searched in a background thread
+	private static final int BACKGROUND_SEARCH_MIN_LENGTH = 100_000;
+	// hits found in background are passed to the FX thread in batches of this size
+	private static final int HITS_BATCH_SIZE = 1000;
+	private static final Color HIT_MARKER_COLOR = Color.web("#FBC02D");
+
+	private static ExecutorService searchExecutor;
+
 	private final List<HitsChangeListener> listeners = new ArrayList<>();
 	private final MarkdownTextArea textArea;
-	private final List<Range> hits = new ArrayList<>();
+	private final ArrayList<Range> hits = new ArrayList<>();
 	private int activeHitIndex = -1;
 	private String nOfCountFormat;
 
-	private Region overviewRuler;
+	private HitFinder hitFinder;
+	private boolean hitsCapped;
+	private Future<?> searchFuture;
+	private volatile int searchVersion;
+	private boolean searching;
+	private volatile int replaceVersion;
+	private boolean replacing;
 
-	FindReplacePane(MarkdownTextArea textArea) {
+	private final OverviewRuler.Layer overviewRulerLayer;
+
+	FindReplacePane(MarkdownTextArea textArea, OverviewRuler overviewRuler) {
 		this.textArea = textArea;
+		this.overviewRulerLayer = overviewRuler.addLayer(HIT_MARKER_COLOR);
 	}
 
 	// 'visible' property
@@ -126,8 +145,26 @@ class FindReplacePane
 		return activeHitIndex >= 0;
 	}
 
-	void textChanged() {
-		findAll(false);
+	/**
+	 * Updates the hits after a text change.
+	 * If possible, only the changed region is searched again.
+	 */
+	void textChanged(int position, int removedLength, int insertedLength) {
+		// replaced text computed in background is outdated
+		cancelReplace();
+
+		if (findField == null || !visible.get() || hitFinder == null)
+			return;
+
+		if (searching || hitsCapped || !hitFinder.isIncremental()) {
+			findAll(false);
+			return;
+		}
+
+		hitFinder.update(hits, textArea.getText(), position, removedLength, insertedLength);
+
+		updateActiveHitIndex(false, true);
+		updateOverviewRuler();
 	}
 
 	private void findAll(boolean selectActiveHit) {
@@ -136,42 +173,132 @@ class FindReplacePane
 
 	private void findAll(String text, String find, boolean selectActiveHit) {
 		findInfoLabel.setText(null);
+		cancelSearch();
 
 		if (find.isEmpty()) {
 			clearHits();
 			return;
 		}
 
-		boolean matchCase = matchCaseButton.isSelected();
-		boolean regex = regexButton.isSelected();
-
 		hits.clear();
+		hitsCapped = false;
+
+		try {
+			hitFinder = new HitFinder(find, matchCaseButton.isSelected(), regexButton.isSelected());
+		} catch (PatternSyntaxException ex) {
+			findInfoLabel.setText(Messages.get("FindReplacePane.infoLabel.regexError"));
+			hitFinder = null;
+		}
+
+		if (hitFinder != null && text.length() >= BACKGROUND_SEARCH_MIN_LENGTH) {
+			findAllAsync(text, selectActiveHit);
+			return;
+		}
 
 		// find
-		if (regex) {
-			String pattern = matchCase ? find : ("(?i)" + find);
-			try {
-				Matcher matcher = Pattern.compile(pattern).matcher(text);
-				while (matcher.find())
-					hits.add(new Range(matcher.start(), matcher.end()));
-			} catch (PatternSyntaxException ex) {
-				findInfoLabel.setText(Messages.get("FindReplacePane.infoLabel.regexError"));
-			}
-		} else {
+		if (hitFinder != null)
+			hitsCapped = !hitFinder.findAll(text, hits, getMaxHitCount());
+
+		updateActiveHitIndex(selectActiveHit, true);
+		updateOverviewRuler();
+	}
+
+	/**
+	 * Searches in a background thread and passes found hits in batches to the FX thread.
+	 */
+	private void findAllAsync(String text, boolean selectActiveHit) {
+		// remove old hits
+		setActiveHitIndex(-1, false);
+
+		searching = true;
+		int version = ++searchVersion;
+		HitFinder finder = hitFinder.copy();
+		int maxHitCount = getMaxHitCount();
+		searchFuture = getSearchExecutor().submit(() -> {
+			ArrayList<Range> batch = new ArrayList<>();
+			int hitCount = 0;
 			int fromIndex = 0;
-			int hitIndex;
-			while ((hitIndex = matchCase
-					? text.indexOf(find, fromIndex)
-					: StringUtils.indexOfIgnoreCase(text, find, fromIndex)) >= 0)
-			{
-				hits.add(new Range(hitIndex, hitIndex + find.length()));
-				fromIndex = hitIndex + find.length();
+			Range hit;
+			while ((hit = finder.find(text, fromIndex)) != null && hitCount < maxHitCount) {
+				if (version != searchVersion)
+					return; // outdated
+
+				batch.add(hit);
+				hitCount++;
+				fromIndex = HitFinder.nextFromIndex(hit);
+
+				if (batch.size() >= HITS_BATCH_SIZE) {
+					ArrayList<Range> batch2 = batch;
+					Platform.runLater(() -> hitsFound(version, batch2, false, false, selectActiveHit));
+					batch = new ArrayList<>();
+				}
 			}
+
+			ArrayList<Range> batch2 = batch;
+			boolean capped = (hit != null);
+			Platform.runLater(() -> hitsFound(version, batch2, true, capped, selectActiveHit));
+		});
+	}
+
+	/**
+	 * Returns the number of hits after which searching stops (optional, see options).
+	 */
+	private static int getMaxHitCount() {
+		int maxFindHits = Options.getMaxFindHits();
+		return (maxFindHits > 0) ? maxFindHits : Integer.MAX_VALUE;
+	}
+
+	private static ExecutorService getSearchExecutor() {
+		if (searchExecutor == null) {
+			searchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+				thread.setDaemon(true); // allow quitting app without shutting down executor
+				return thread;
+			});
+		}
+		return searchExecutor;
+	}
+
+	private void hitsFound(int version, List<Range> batch, boolean done, boolean capped, boolean selectActiveHit) {
+		if (version != searchVersion)
+			return; // outdated
+
+		hits.addAll(batch);
+		if (done) {
+			searching = false;
+			searchFuture = null;
+			hitsCapped = capped;
 		}
 
+		if (activeHitIndex < 0)
+			updateActiveHitIndex(selectActiveHit, done);
+		else {
+			update();
+			fireHitsChanged();
+		}
+
+		if (done)
+			updateOverviewRuler();
+	}
+
+	private void cancelSearch() {
+		if (!searching)
+			return;
+
+		searchVersion++;
+		searching = false;
+		if (searchFuture != null) {
+			searchFuture.cancel(false);
+			searchFuture = null;
+		}
+	}
+
+	/**
+	 * Makes the first hit after the current selection the active hit.
+	 */
+	private void updateActiveHitIndex(boolean selectActiveHit, boolean wrap) {
 		if (hits.isEmpty()) {
 			setActiveHitIndex(-1, selectActiveHit);
-			updateOverviewRuler();
 			return;
 		}
 
@@ -182,15 +309,24 @@ class FindReplacePane
 		});
 		if (index < 0) {
 			index = -index - 1;
-			if (index >= hits.size())
+			if (index >= hits.size()) {
+				if (!wrap) {
+					// wait for more hits
+					update();
+					fireHitsChanged();
+					return;
+				}
 				index = 0; // wrap
+			}
 		}
 		setActiveHitIndex(index, selectActiveHit);
-		updateOverviewRuler();
 	}
 
 	private void clearHits() {
+		cancelSearch();
 		hits.clear();
+		hitsCapped = false;
+		hitFinder = null;
 		setActiveHitIndex(-1, false);
 		updateOverviewRuler();
 	}
@@ -264,27 +400,125 @@ class FindReplacePane
 		Utils.error(replaceField, false);
 		replaceInfoLabel.setText(null);
 
-		if (hits.isEmpty())
+		if (hits.isEmpty() || searching || replacing)
 			return;
 
-		final String replace = replaceField.getText();
-		Pattern regexReplacePattern = regexReplacePattern();
+		String text = textArea.getText();
+		String replace = replaceField.getText();
+		HitFinder finder = hitFinder.copy();
 
-		MultiChangeBuilder<?, ?, ?> multiChange = textArea.createMultiChange(hits.size());
-		for (Range hit : hits) {
-			String replace2 = replace;
-			if (regexReplacePattern != null) {
-				replace2 = regexReplace(regexReplacePattern, hit, replace);
-				if (replace2 == null)
-					return; // error
-			}
-			multiChange.replaceText(hit.start, hit.end, replace2);
+		if (hitsCapped) {
+			// not all hits are known --> search all hits again (uncapped) in background
+			replaceAllAsync(text, null, replace, finder);
+			return;
 		}
+
+		ArrayList<Range> hits = new ArrayList<>(this.hits);
+		if (text.length() >= BACKGROUND_SEARCH_MIN_LENGTH || hits.size() >= HITS_BATCH_SIZE) {
+			replaceAllAsync(text, hits, replace, finder);
+			return;
+		}
+
+		StringBuilder buf = new StringBuilder();
+		try {
+			finder.appendReplaced(buf, text, hits, 0, hits.size(), replace);
+		} catch (IllegalArgumentException|IndexOutOfBoundsException ex) {
+			replaceFailed(ex);
+			return;
+		}
+		applyReplaceAll(hits, buf.toString());
+	}
+
+	/**
+	 * Builds the replaced text in a background thread (in batches, reporting progress)
+	 * and applies it in the FX thread.
+	 * If hitsOrNull is null, all hits are searched in the background thread (without cap).
+	 */
+	private void replaceAllAsync(String text, ArrayList<Range> hitsOrNull, String replace, HitFinder finder) {
+		replacing = true;
+		int version = ++replaceVersion;
+		update();
+
+		getSearchExecutor().submit(() -> {
+			ArrayList<Range> hits = (hitsOrNull != null) ? hitsOrNull : findAllUncapped(text, finder);
+			if (version != replaceVersion)
+				return; // cancelled
+
+			int hitCount = hits.size();
+			StringBuilder buf = new StringBuilder(hits.get(hitCount - 1).end - hits.get(0).start);
+			try {
+				for (int i = 0; i < hitCount; i += HITS_BATCH_SIZE) {
+					if (version != replaceVersion)
+						return; // cancelled
+
+					finder.appendReplaced(buf, text, hits, i, Math.min(i + HITS_BATCH_SIZE, hitCount), replace);
+
+					int percent = (int) ((long) i * 100 / hitCount);
+					Platform.runLater(() -> {
+						if (version == replaceVersion)
+							replaceInfoLabel.setText(Messages.get("FindReplacePane.replaceInfoLabel.progress", percent));
+					});
+				}
+			} catch (IllegalArgumentException|IndexOutOfBoundsException ex) {
+				Platform.runLater(() -> replaceAllDone(version, hits, null, ex));
+				return;
+			}
+
+			String replaced = buf.toString();
+			Platform.runLater(() -> replaceAllDone(version, hits, replaced, null));
+		});
+	}
+
+	private static ArrayList<Range> findAllUncapped(String text, HitFinder finder) {
+		ArrayList<Range> hits = new ArrayList<>();
+		finder.findAll(text, hits, Integer.MAX_VALUE);
+		return hits;
+	}
+
+	private void replaceAllDone(int version, List<Range> hits, String replaced, Exception ex) {
+		if (version != replaceVersion)
+			return; // cancelled
+
+		replacing = false;
+		replaceInfoLabel.setText(null);
+		update();
+
+		if (ex != null)
+			replaceFailed(ex);
+		else
+			applyReplaceAll(hits, replaced);
+	}
+
+	/**
+	 * Replaces the text from the start of the first hit to the end of the last hit
+	 * with a single change (one undo step).
+	 */
+	private void applyReplaceAll(List<Range> hits, String replaced) {
+		int start = hits.get(0).start;
+		int end = hits.get(hits.size() - 1).end;
+
+		MultiChangeBuilder<?, ?, ?> multiChange = textArea.createMultiChange(1);
+		multiChange.replaceText(start, end, replaced);
 		SmartEdit.commitMultiChange(textArea, multiChange);
 
 		textArea.requestFocus();
 	}
 
+	private void cancelReplace() {
+		if (!replacing)
+			return;
+
+		replaceVersion++;
+		replacing = false;
+		replaceInfoLabel.setText(null);
+		update();
+	}
+
+	private void replaceFailed(Exception ex) {
+		Utils.error(replaceField, true);
+		replaceInfoLabel.setText(ex.getMessage());
+	}
+
 	private Pattern regexReplacePattern() {
 		if (!regexButton.isSelected())
 			return null;
@@ -296,10 +530,8 @@ class FindReplacePane
 			return null;
 		}
 
-		String find = findField.getText();
-		String pattern = matchCaseButton.isSelected() ? find : ("(?i)" + find);
 		try {
-			return Pattern.compile(pattern);
+			return RegexSearchEngine.compile(findField.getText(), matchCaseButton.isSelected());
 		} catch (PatternSyntaxException ex) {
 			return null;
 		}
@@ -310,107 +542,29 @@ class FindReplacePane
 			String text = textArea.getText(hit.start, hit.end);
 			return regexReplacePattern.matcher(text).replaceFirst(replace);
 		} catch (IllegalArgumentException|IndexOutOfBoundsException ex) {
-			Utils.error(replaceField, true);
-			replaceInfoLabel.setText(ex.getMessage());
+			replaceFailed(ex);
 			return null;
 		}
 	}
 
 	private void updateOverviewRuler() {
-		if (overviewRuler == null) {
-			if (hits.isEmpty())
-				return;
-
-			ScrollBar vScrollBar = Utils.findVScrollBar(textArea.getParent());
-			if (vScrollBar == null)
-				return;
-
-			overviewRuler = (Region) vScrollBar.lookup(".track");
-			if (overviewRuler == null)
-				return;
-
-			overviewRuler.heightProperty().addListener((ob) -> updateOverviewRuler());
-		}
-
-		if (hits.isEmpty() || !overviewRuler.isVisible()) {
-			overviewRuler.setStyle(null);
-			return;
-		}
-
-		int hitCount = hits.size();
-		double height = overviewRuler.getHeight();
-		int lineCount = textArea.getParagraphs().size();
-
-		// compute top insets of hits
-		int[] markerY = new int[hitCount];
-		int[] markerHeight = new int[hitCount];
-		boolean hasMergedMarker = false;
-		int markerCount = 0;
-		int previousY = -100;
-		for (Range hit : hits) {
-			int line = textArea.offsetToPosition(hit.start, Bias.Backward).getMajor();
-			int y = (int) (height * line / lineCount);
-			if (y < 0 || y == previousY)
-				continue; // avoid duplicates
-
-			if (y - 1 == previousY) {
-				// merge with previous
-				markerHeight[markerCount - 1]++;
-				hasMergedMarker = true;
-				previousY = y;
-				continue;
-			}
-
-			previousY = y;
-
-			markerY[markerCount] = y;
-			markerHeight[markerCount] = 1;
-			markerCount++;
-		}
-
-		// build CSS border width and colors
-		StringBuilder buf = new StringBuilder();
-		buf.append("-fx-border-width: ");
-		if (hasMergedMarker) {
-			for (int i = 0; i < markerCount; i++) {
-				if (markerHeight[i] > 1)
-					buf.append(markerHeight[i]).append( " 0 0 0,");
-			}
-		}
-		buf.append( "1 0 0 0; -fx-border-color: ");
-		for (int i = 0; i < markerCount; i++) {
-			if (i > 0)
-				buf.append(',');
-			buf.append("-mwfx-hit");
-		}
-
-		// build CSS border insets
-		buf.append("; -fx-border-insets: ");
-		if (hasMergedMarker) {
-			for (int i = 0; i < markerCount; i++) {
-				if (markerHeight[i] > 1)
-					buf.append(markerY[i]).append(" 0 0 0,");
-			}
-		}
-		for (int i = 0; i < markerCount; i++) {
-			if (markerHeight[i] == 1)
-				buf.append(markerY[i]).append(" 0 0 0,");
-		}
-		buf.setLength(buf.length() - 1); // remove last ','
-
-		overviewRuler.setStyle(buf.toString());
+		overviewRulerLayer.setMarkers(hits);
 	}
 
 	private void update() {
-		Utils.error(findField, activeHitIndex < 0 && !findField.getText().isEmpty());
+		Utils.error(findField, activeHitIndex < 0 && !searching && !findField.getText().isEmpty());
 
+		Object hitCount = (searching || hitsCapped)
+				? MessageFormat.format("{0}+", hits.size())
+				: hits.size();
 		nOfHitCountLabel.setText(findField.getText().isEmpty()
 				? ""
-				: MessageFormat.format(nOfCountFormat, activeHitIndex + 1, hits.size()));
+				: MessageFormat.format(nOfCountFormat, activeHitIndex + 1, hitCount));
 
 		boolean disabled = hits.isEmpty();
 		previousButton.setDisable(disabled);
 		nextButton.setDisable(disabled);
+		replaceAllButton.setDisable(disabled || searching || replacing);
 	}
 
 	Node getNode() {
@@ -496,7 +650,7 @@ class FindReplacePane
 
 		boolean oldVisible = visible.get();
 		visible.set(true);
-		textChanged();
+		findAll(false);
 
 		if (findSelection) {
 			String selectedText = textArea.getSelectedText();
@@ -511,6 +665,7 @@ class FindReplacePane
 	}
 
 	void hide() {
+		cancelReplace();
 		visible.set(false);
 		replacePane.setVisible(false);
 		clearHits();
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2015 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.editor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import at.crowdware.bookdesigner.util.Range;
+
+/**
+ * Finds all occurrences of a string or regular expression in a text.
+ *
+ * After a text change, the hits can be updated incrementally:
+ * hits before and after the changed region are kept (and shifted),
+ * only the changed region is searched again.
+ *
+ * Not thread-safe. Use copy() to search in another thread.
+ *
+ * @author Karl Tauber
+ */
+public class HitFinder
+{
+	private final String find;
+	private final Pattern pattern;	// null if not regex
+	private final boolean lineBound;
+	private final SearchEngine engine;
+
+	private Matcher replaceMatcher;
+
+	public HitFinder(String find, boolean matchCase, boolean regex)
+		throws PatternSyntaxException
+	{
+		this.find = find;
+		this.pattern = regex ? RegexSearchEngine.compile(find, matchCase) : null;
+		this.engine = (pattern != null)
+			? new RegexSearchEngine(pattern)
+			: new LiteralSearchEngine(find, matchCase);
+		this.lineBound = !regex || !mayMatchAcrossLines(find);
+	}
+
+	private HitFinder(HitFinder finder) {
+		this.find = finder.find;
+		this.pattern = finder.pattern;
+		this.lineBound = finder.lineBound;
+		this.engine = finder.engine.copy();
+	}
+
+	public HitFinder copy() {
+		return new HitFinder(this);
+	}
+
+	/**
+	 * Returns the first hit that starts at or after the given index, or null.
+	 */
+	public Range find(String text, int fromIndex) {
+		return engine.find(text, fromIndex);
+	}
+
+	/**
+	 * Returns the index where searching for the hit that follows the given hit starts.
+	 */
+	public static int nextFromIndex(Range hit) {
+		// same as Matcher.find() does after an empty match
+		return (hit.end == hit.start) ? hit.end + 1 : hit.end;
+	}
+
+	/**
+	 * Returns the replacement text for the given hit.
+	 * For regular expressions, group references (e.g. $1) in the replacement are resolved.
+	 *
+	 * @throws IllegalArgumentException if the replacement refers to a non-existing group
+	 */
+	public String replacement(String text, Range hit, String replace) {
+		if (pattern == null || (replace.indexOf('$') < 0 && replace.indexOf('\\') < 0))
+			return replace;
+
+		CharSequence hitText = text.subSequence(hit.start, hit.end);
+		if (replaceMatcher == null)
+			replaceMatcher = pattern.matcher(hitText);
+		else
+			replaceMatcher.reset(hitText);
+		return replaceMatcher.replaceFirst(replace);
+	}
+
+	/**
+	 * Appends the given hits, replaced with the given replacement,
+	 * and the unchanged text between them to the buffer.
+	 *
+	 * Appending starts at the end of the hit before fromIndex (or at the first hit),
+	 * so that consecutive calls for adjacent index ranges build the replaced text
+	 * from the start of the first hit to the end of the last hit.
+	 *
+	 * @throws IllegalArgumentException if the replacement refers to a non-existing group
+	 */
+	public void appendReplaced(StringBuilder buf, String text, List<Range> hits,
+		int fromIndex, int toIndex, String replace)
+	{
+		int index = (fromIndex > 0) ? hits.get(fromIndex - 1).end : hits.get(0).start;
+		for (int i = fromIndex; i < toIndex; i++) {
+			Range hit = hits.get(i);
+			buf.append(text, index, hit.start);
+			buf.append(replacement(text, hit, replace));
+			index = hit.end;
+		}
+	}
+
+	/**
+	 * Adds all hits to the given list, but not more than maxHitCount.
+	 * Returns false if there are more hits.
+	 */
+	public boolean findAll(String text, List<Range> hits, int maxHitCount) {
+		int fromIndex = 0;
+		Range hit;
+		while ((hit = find(text, fromIndex)) != null) {
+			if (hits.size() >= maxHitCount)
+				return false;
+
+			hits.add(hit);
+			fromIndex = nextFromIndex(hit);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether update() can be used.
+	 * Not possible for regular expressions that may match line separators
+	 * or depend on the text end.
+	 */
+	boolean isIncremental() {
+		return lineBound;
+	}
+
+	/**
+	 * Updates the (complete) hits of the old text after a text change.
+	 * Only the changed region is searched again. Hits behind it are shifted.
+	 */
+	void update(ArrayList<Range> hits, String newText, int position, int removedLength, int insertedLength) {
+		if (!lineBound)
+			throw new IllegalStateException();
+
+		int delta = insertedLength - removedLength;
+		int changeEnd = position + insertedLength;
+		int textLength = newText.length();
+
+		// (non-empty) hits ending at or before keepLimit are unchanged;
+		// text at or behind boundary is unchanged (except shifted)
+		int keepLimit;
+		int boundary;
+		if (pattern != null) {
+			// regular expression hits do not span multiple lines
+			// --> search changed lines again
+			keepLimit = newText.lastIndexOf('\n', position - 1) + 1;
+			int lineEnd = newText.indexOf('\n', changeEnd);
+			boundary = (lineEnd >= 0) ? lineEnd + 1 : textLength;
+		} else {
+			keepLimit = position;
+			boundary = changeEnd;
+		}
+
+		// first old hit that is not kept
+		// (empty hits at keepLimit are not kept because they depend on the following text)
+		int first = 0;
+		int high = hits.size() - 1;
+		while (first <= high) {
+			int mid = (first + high) >>> 1;
+			Range midHit = hits.get(mid);
+			if (midHit.end < keepLimit || (midHit.end == keepLimit && midHit.start < midHit.end))
+				first = mid + 1;
+			else
+				high = mid - 1;
+		}
+
+		int fromIndex = (first > 0) ? nextFromIndex(hits.get(first - 1)) : 0;
+		if (pattern == null)
+			fromIndex = Math.max(fromIndex, position - find.length() + 1);
+		else
+			fromIndex = Math.max(fromIndex, keepLimit);
+
+		// search until the new hits and the (shifted) old hits are "in sync",
+		// which is the case at a position behind the changed region,
+		// where both have no hit that spans over that position
+		ArrayList<Range> newHits = new ArrayList<>();
+		int oldChangeEnd = position + removedLength;
+		int tail = first;
+		int syncPos = boundary;
+		Range hit = find(newText, fromIndex);
+		for (;;) {
+			// skip old hits in changed region or before syncPos
+			while (tail < hits.size() &&
+				(hits.get(tail).start < oldChangeEnd || hits.get(tail).start + delta < syncPos))
+			{
+				syncPos = Math.max(syncPos, hits.get(tail).end + delta);
+				tail++;
+			}
+
+			if (hit == null || hit.start >= syncPos)
+				break;
+
+			newHits.add(hit);
+			syncPos = Math.max(syncPos, hit.end);
+			hit = find(newText, nextFromIndex(hit));
+		}
+
+		// shift old hits behind changed region and replace changed hits
+		if (delta != 0) {
+			for (int i = tail; i < hits.size(); i++) {
+				Range oldHit = hits.get(i);
+				hits.set(i, new Range(oldHit.start + delta, oldHit.end + delta));
+			}
+		}
+		hits.subList(first, tail).clear();
+		hits.addAll(first, newHits);
+	}
+
+	/**
+	 * Returns whether the given regular expression may match line separators
+	 * or depends on the text end (conservative).
+	 */
+	private static boolean mayMatchAcrossLines(String regex) {
+		int length = regex.length();
+		for (int i = 0; i < length; i++) {
+			char ch = regex.charAt(i);
+			char next = (i + 1 < length) ? regex.charAt(i + 1) : 0;
+			switch (ch) {
+				case '\\':
+					// escapes that never match line separators
+					if (Character.isLetterOrDigit(next) && "dwbBtA123456789".indexOf(next) < 0)
+						return true;
+					i++;
+					break;
+
+				case '[':
+					if (next == '^')
+						return true; // negated character class
+					break;
+
+				case '(':
+					if (next == '?') {
+						// embedded flags (e.g. DOTALL)
+						for (int j = i + 2; j < length; j++) {
+							char flag = regex.charAt(j);
+							if (flag == 's' || flag == 'x')
+								return true;
+							if (!Character.isLetter(flag) && flag != '-')
+								break;
+						}
+					}
+					break;
+
+				case '$':
+				case '\n':
+				case '\r':
+					return true;
+			}
+		}
+		return false;
+	}
+}
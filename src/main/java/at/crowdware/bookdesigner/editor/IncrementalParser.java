@@ -0,0 +1,425 @@
+/*
+ * Copyright (c) 2015 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.editor;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import com.vladsch.flexmark.ast.BlockQuote;
+import com.vladsch.flexmark.ast.FencedCodeBlock;
+import com.vladsch.flexmark.ast.Heading;
+import com.vladsch.flexmark.ast.Paragraph;
+import com.vladsch.flexmark.ast.ThematicBreak;
+import com.vladsch.flexmark.ext.tables.TableBlock;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.ast.Document;
+import com.vladsch.flexmark.util.ast.Node;
+import com.vladsch.flexmark.util.ast.ReferenceNode;
+import com.vladsch.flexmark.util.sequence.BasedSequence;
+import com.vladsch.flexmark.util.sequence.SegmentedSequence;
+
+/**
+ * Incremental parsing of markdown text.
+ *
+ * Collects the text changes since the last parse and re-parses only the
+ * top-level blocks touched by the changes. The region is widened to
+ * unchanged blank lines, so that it can be parsed independently.
+ * All other top-level blocks are copied from the previous document
+ * and rebased to the new text; offsets of blocks behind the region are shifted.
+ * The previous document is never modified, so that it can be used
+ * concurrently (e.g. by the spell checker).
+ *
+ * If the region can not be parsed independently (e.g. lists, HTML blocks,
+ * reference definitions, footnotes, etc), a full parse is necessary.
+ *
+ * @author Karl Tauber
+ */
+class IncrementalParser
+{
+	// range of text changes since last parse (in current text coordinates)
+	private int changeStart = -1;
+	private int changeEnd;
+	private int changeDelta;
+
+	// fields of node classes that hold BasedSequence or List<BasedSequence>
+	private static final ConcurrentHashMap<Class<?>, Field[]> sequenceFieldsCache = new ConcurrentHashMap<>();
+
+	// fields of node classes that are copied (all except tree structure)
+	private static final ConcurrentHashMap<Class<?>, Field[]> copyFieldsCache = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<Class<?>, Constructor<?>> constructorCache = new ConcurrentHashMap<>();
+
+	// markers for classes that can not be copied (ConcurrentHashMap does not support null values)
+	private static final Field[] NO_FIELDS = {};
+	private static final Constructor<?> NO_CONSTRUCTOR = Object.class.getConstructors()[0];
+
+	/**
+	 * Records a text change. Invoked for each text change since last parse.
+	 */
+	void textChanged(int position, int removedLength, int insertedLength) {
+		if (changeStart < 0) {
+			changeStart = position;
+			changeEnd = position + insertedLength;
+			changeDelta = insertedLength - removedLength;
+		} else {
+			changeEnd = Math.max(changeEnd, position + removedLength) + (insertedLength - removedLength);
+			changeStart = Math.min(changeStart, position);
+			changeDelta += insertedLength - removedLength;
+		}
+	}
+
+	/**
+	 * Forgets recorded text changes. Invoked after parsing.
+	 */
+	void reset() {
+		changeStart = -1;
+	}
+
+	/**
+	 * Re-parses the changed region of the given document.
+	 * Can be invoked in a background thread.
+	 * The given document is not modified.
+	 *
+	 * Returns null if incremental parsing is not possible.
+	 */
+	Splice parse(Parser parser, Document oldDocument, String newText) {
+		if (changeStart < 0)
+			return null;
+		return parse(parser, oldDocument, newText, changeStart, changeEnd, changeDelta);
+	}
+
+	/**
+	 * Captures the recorded text changes so that parsing can be done in another thread.
+	 */
+	IncrementalParser copy() {
+		IncrementalParser copy = new IncrementalParser();
+		copy.changeStart = changeStart;
+		copy.changeEnd = changeEnd;
+		copy.changeDelta = changeDelta;
+		return copy;
+	}
+
+	private static Splice parse(Parser parser, Document oldDocument, String newText,
+		int changeStart, int changeEnd, int delta)
+	{
+		BasedSequence oldText = oldDocument.getChars();
+		int oldLength = oldText.length();
+		int oldChangeEnd = changeEnd - delta;
+		if (oldLength + delta != newText.length() || changeStart > oldChangeEnd || oldChangeEnd > oldLength)
+			return null; // changes do not match old document
+
+		// collect top-level blocks
+		ArrayList<Node> blocks = new ArrayList<>();
+		for (Node block = oldDocument.getFirstChild(); block != null; block = block.getNext()) {
+			// definitions (references, abbreviations, footnotes) affect the whole document
+			if (block instanceof ReferenceNode)
+				return null;
+			blocks.add(block);
+		}
+		int blockCount = blocks.size();
+		if (blockCount == 0)
+			return null;
+
+		// find touched blocks
+		int first = 0;
+		while (first < blockCount - 1 && blocks.get(first).getEndOffset() < changeStart)
+			first++;
+		int last = first;
+		while (last < blockCount - 1 && blocks.get(last + 1).getStartOffset() <= oldChangeEnd)
+			last++;
+
+		// region starts at the begin of the line of the first block,
+		// which must follow an unchanged blank line
+		int regionStart;
+		for (;;) {
+			regionStart = (first > 0) ? oldText.startOfLine(blocks.get(first).getStartOffset()) : 0;
+			if (regionStart == 0 || (regionStart <= changeStart && isBlankLine(oldText, regionStart - 1)))
+				break;
+			first--;
+		}
+
+		// region ends after an unchanged blank line that follows the last block
+		int regionEnd;
+		for (;;) {
+			if (last == blockCount - 1) {
+				regionEnd = oldLength;
+				break;
+			}
+			int blankLineStart = oldText.endOfLineAnyEOL(blocks.get(last).getEndOffset() - 1) + 1;
+			if (blankLineStart > oldChangeEnd && blankLineStart < oldLength && isBlankLine(oldText, blankLineStart)) {
+				regionEnd = Math.min(oldText.endOfLineAnyEOL(blankLineStart) + 1, oldLength);
+				break;
+			}
+			last++;
+		}
+
+		// block before region must not be able to continue into the region
+		if (first > 0 && !isSelfContained(blocks.get(first - 1)))
+			return null;
+		for (int i = first; i <= last; i++) {
+			if (!isSelfContained(blocks.get(i)))
+				return null;
+		}
+
+		// blocks outside of the region must be copyable into the new base text
+		for (int i = 0; i < blockCount; i++) {
+			if ((i < first || i > last) && !canCopy(blocks.get(i)))
+				return null;
+		}
+
+		// parse region
+		BasedSequence newBase = BasedSequence.of(newText);
+		Document regionDocument = parser.parse(newBase.subSequence(regionStart, regionEnd + delta));
+		for (Node block = regionDocument.getFirstChild(); block != null; block = block.getNext()) {
+			if (!isSelfContained(block))
+				return null;
+		}
+
+		return new Splice(blocks, first, last, regionDocument, newBase, delta);
+	}
+
+	/**
+	 * Returns whether the given top-level block can not be affected by
+	 * text before or after it (if separated by blank lines).
+	 */
+	private static boolean isSelfContained(Node block) {
+		if (block instanceof FencedCodeBlock)
+			return ((FencedCodeBlock)block).getClosingMarker().isNotEmpty();
+
+		return block instanceof Paragraph ||
+			block instanceof Heading ||
+			block instanceof ThematicBreak ||
+			block instanceof BlockQuote ||
+			block instanceof TableBlock;
+	}
+
+	private static boolean isBlankLine(BasedSequence text, int index) {
+		int start = text.startOfLine(index);
+		int end = text.endOfLineAnyEOL(index);
+		return start >= end || text.subSequence(start, end).isBlank();
+	}
+
+	//---- copy and shift offsets ---------------------------------------------
+
+	private static boolean canCopy(Node node) {
+		if (getConstructor(node.getClass()) == null || getCopyFields(node.getClass()) == null)
+			return false;
+
+		try {
+			for (Field field : getSequenceFields(node.getClass())) {
+				Object value = field.get(node);
+				if (value instanceof BasedSequence) {
+					if (!canShift((BasedSequence) value))
+						return false;
+				} else if (value instanceof List) {
+					for (Object seq : (List<?>) value) {
+						if (!canShift((BasedSequence) seq))
+							return false;
+					}
+				}
+			}
+		} catch (IllegalAccessException ex) {
+			return false;
+		}
+
+		for (Node child = node.getFirstChild(); child != null; child = child.getNext()) {
+			if (!canCopy(child))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean canShift(BasedSequence seq) {
+		// only contiguous sequences can be shifted
+		return seq.isNull() ||
+			(!(seq instanceof SegmentedSequence) &&
+			 seq.length() == seq.getEndOffset() - seq.getStartOffset());
+	}
+
+	/**
+	 * Creates a deep copy of the given node.
+	 * Sequences are shifted by delta into newBase, so that the new document
+	 * references only one base text (and old texts can be garbage collected).
+	 */
+	private static Node copy(Node node, BasedSequence newBase, int delta) throws ReflectiveOperationException {
+		Node copy = getConstructor(node.getClass()).newInstance();
+		for (Field field : getCopyFields(node.getClass()))
+			field.set(copy, field.get(node));
+
+		for (Field field : getSequenceFields(node.getClass())) {
+			Object value = field.get(node);
+			if (value instanceof BasedSequence)
+				field.set(copy, shift((BasedSequence) value, newBase, delta));
+			else if (value instanceof List) {
+				List<?> list = (List<?>) value;
+				ArrayList<BasedSequence> newList = new ArrayList<>(list.size());
+				for (Object seq : list)
+					newList.add(shift((BasedSequence) seq, newBase, delta));
+				field.set(copy, newList);
+			}
+		}
+
+		for (Node child = node.getFirstChild(); child != null; child = child.getNext())
+			copy.appendChild(copy(child, newBase, delta));
+		return copy;
+	}
+
+	private static BasedSequence shift(BasedSequence seq, BasedSequence newBase, int delta) {
+		if (seq.isNull())
+			return seq;
+		return newBase.subSequence(seq.getStartOffset() + delta, seq.getEndOffset() + delta);
+	}
+
+	private static Constructor<? extends Node> getConstructor(Class<? extends Node> cls) {
+		Constructor<?> constructor = constructorCache.computeIfAbsent(cls, c -> {
+			try {
+				Constructor<?> con = c.getDeclaredConstructor();
+				con.setAccessible(true);
+				return con;
+			} catch (NoSuchMethodException | RuntimeException ex) {
+				return NO_CONSTRUCTOR;
+			}
+		});
+		@SuppressWarnings("unchecked")
+		Constructor<? extends Node> result = (Constructor<? extends Node>) constructor;
+		return (constructor != NO_CONSTRUCTOR) ? result : null;
+	}
+
+	/**
+	 * Returns all instance fields of the given node class,
+	 * except the tree structure fields of class Node.
+	 * Returns null if fields are not accessible.
+	 */
+	private static Field[] getCopyFields(Class<?> cls) {
+		Field[] fields = copyFieldsCache.computeIfAbsent(cls, c -> {
+			try {
+				ArrayList<Field> list = new ArrayList<>();
+				for (; c != Object.class; c = c.getSuperclass()) {
+					for (Field field : c.getDeclaredFields()) {
+						if (Modifier.isStatic(field.getModifiers()) ||
+							(c == Node.class && !field.getName().equals("chars")))
+							continue;
+						field.setAccessible(true);
+						list.add(field);
+					}
+				}
+				return list.toArray(new Field[list.size()]);
+			} catch (RuntimeException ex) {
+				return NO_FIELDS;
+			}
+		});
+		return (fields != NO_FIELDS) ? fields : null;
+	}
+
+	private static Field[] getSequenceFields(Class<?> cls) {
+		return sequenceFieldsCache.computeIfAbsent(cls, c -> {
+			ArrayList<Field> fields = new ArrayList<>();
+			for (; c != Object.class; c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields()) {
+					if (Modifier.isStatic(field.getModifiers()))
+						continue;
+					if (BasedSequence.class.isAssignableFrom(field.getType()) || isSequenceList(field)) {
+						field.setAccessible(true);
+						fields.add(field);
+					}
+				}
+			}
+			return fields.toArray(new Field[fields.size()]);
+		});
+	}
+
+	private static boolean isSequenceList(Field field) {
+		if (field.getType() != List.class)
+			return false;
+		Type type = field.getGenericType();
+		return type instanceof ParameterizedType &&
+			((ParameterizedType)type).getActualTypeArguments()[0] == BasedSequence.class;
+	}
+
+	//---- class Splice -------------------------------------------------------
+
+	/**
+	 * Result of an incremental parse.
+	 */
+	static class Splice
+	{
+		private final List<Node> oldBlocks;
+		private final int first;
+		private final int last;
+		private final Document regionDocument;
+		private final BasedSequence newBase;
+		private final int delta;
+
+		private Splice(List<Node> oldBlocks, int first, int last,
+			Document regionDocument, BasedSequence newBase, int delta)
+		{
+			this.oldBlocks = oldBlocks;
+			this.first = first;
+			this.last = last;
+			this.regionDocument = regionDocument;
+			this.newBase = newBase;
+			this.delta = delta;
+		}
+
+		/**
+		 * Builds the new document from copies of the unchanged blocks of the
+		 * old document and the re-parsed blocks. The old document is not modified.
+		 * Can be invoked in a background thread.
+		 */
+		Document apply() {
+			Document document = new Document(regionDocument, newBase);
+
+			try {
+				// blocks before region (unchanged offsets, rebased to new text)
+				for (int i = 0; i < first; i++)
+					document.appendChild(copy(oldBlocks.get(i), newBase, 0));
+
+				// re-parsed blocks
+				Node block = regionDocument.getFirstChild();
+				while (block != null) {
+					Node next = block.getNext();
+					document.appendChild(block);
+					block = next;
+				}
+
+				// blocks behind region (shifted)
+				for (int i = last + 1; i < oldBlocks.size(); i++)
+					document.appendChild(copy(oldBlocks.get(i), newBase, delta));
+			} catch (ReflectiveOperationException ex) {
+				// should not happen because canCopy() was invoked before
+				throw new IllegalStateException(ex);
+			}
+
+			return document;
+		}
+	}
+}
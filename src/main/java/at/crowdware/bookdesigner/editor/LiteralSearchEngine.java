@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2015 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.editor;
+
+import at.crowdware.bookdesigner.util.Range;
+
+/**
+ * Finds occurrences of a literal string.
+ *
+ * Case-sensitive search uses String.indexOf(), which the JVM compiles to
+ * vectorized (SIMD) code. Case-insensitive search uses the Boyer-Moore-Horspool
+ * algorithm on case-folded characters, which skips up to the length of the
+ * searched string on mismatches (StringUtils.indexOfIgnoreCase() compares
+ * the whole string at each text position).
+ *
+ * Case folding is the same as in String.regionMatches(true, ...),
+ * so hits are the same as with StringUtils.indexOfIgnoreCase().
+ *
+ * Stateless and thread-safe.
+ *
+ * @author Karl Tauber
+ */
+class LiteralSearchEngine
+	implements SearchEngine
+{
+	private static final int SHIFTS_SIZE = 256;
+
+	private final String find;
+	private final boolean matchCase;
+
+	// only used for case-insensitive search
+	private final char[] foldedFind;
+	private final int[] shifts;	// indexed by low byte of folded char
+
+	LiteralSearchEngine(String find, boolean matchCase) {
+		this.find = find;
+		this.matchCase = matchCase;
+
+		if (matchCase) {
+			foldedFind = null;
+			shifts = null;
+		} else {
+			int length = find.length();
+			foldedFind = new char[length];
+			for (int i = 0; i < length; i++)
+				foldedFind[i] = fold(find.charAt(i));
+
+			// bad character shifts; chars with same low byte share the smallest shift
+			shifts = new int[SHIFTS_SIZE];
+			for (int i = 0; i < SHIFTS_SIZE; i++)
+				shifts[i] = Math.max(length, 1);
+			for (int i = 0; i < length - 1; i++)
+				shifts[foldedFind[i] & (SHIFTS_SIZE - 1)] = length - 1 - i;
+		}
+	}
+
+	@Override
+	public Range find(String text, int fromIndex) {
+		int hitIndex = matchCase
+			? text.indexOf(find, fromIndex)
+			: indexOfIgnoreCase(text, fromIndex);
+		return (hitIndex >= 0) ? new Range(hitIndex, hitIndex + find.length()) : null;
+	}
+
+	@Override
+	public SearchEngine copy() {
+		return this;
+	}
+
+	int indexOfIgnoreCase(String text, int fromIndex) {
+		char[] foldedFind = this.foldedFind;
+		int length = foldedFind.length;
+		if (fromIndex < 0)
+			fromIndex = 0;
+		if (length == 0)
+			return (fromIndex <= text.length()) ? fromIndex : -1;
+
+		int last = length - 1;
+		char lastChar = foldedFind[last];
+		int maxIndex = text.length() - length;
+		int i = fromIndex;
+		while (i <= maxIndex) {
+			char ch = fold(text.charAt(i + last));
+			if (ch == lastChar) {
+				int j = last - 1;
+				while (j >= 0 && fold(text.charAt(i + j)) == foldedFind[j])
+					j--;
+				if (j < 0)
+					return i;
+			}
+			i += shifts[ch & (SHIFTS_SIZE - 1)];
+		}
+		return -1;
+	}
+
+	/**
+	 * Two chars are equal ignoring case if their folded chars are equal.
+	 * Same as String.regionMatches(true, ...): compare upper case chars,
+	 * and if not equal, compare lower case of upper case chars.
+	 */
+	static char fold(char ch) {
+		if (ch < 128)
+			return (ch >= 'A' && ch <= 'Z') ? (char) (ch + ('a' - 'A')) : ch;
+		return Character.toLowerCase(Character.toUpperCase(ch));
+	}
+}
@@ -34,9 +34,13 @@ import static org.fxmisc.wellbehaved.event.InputMap.*;
 import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javafx.application.Platform;
 import javafx.beans.InvalidationListener;
 import javafx.beans.WeakInvalidationListener;
@@ -46,8 +50,6 @@ import javafx.beans.property.ReadOnlyBooleanProperty;
 import javafx.beans.property.ReadOnlyBooleanWrapper;
 import javafx.beans.property.ReadOnlyObjectProperty;
 import javafx.beans.property.ReadOnlyObjectWrapper;
-import javafx.beans.property.ReadOnlyStringProperty;
-import javafx.beans.property.ReadOnlyStringWrapper;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
@@ -62,6 +64,7 @@ import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.input.TransferMode;
 import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.ast.Document;
 import com.vladsch.flexmark.util.ast.Node;
 import org.fxmisc.flowless.VirtualizedScrollPane;
 import org.fxmisc.richtext.Caret.CaretVisibility;
@@ -69,25 +72,39 @@ import org.fxmisc.richtext.CaretNode;
 import org.fxmisc.richtext.CharacterHit;
 import org.fxmisc.undo.UndoManager;
 import org.fxmisc.wellbehaved.event.Nodes;
+import org.reactfx.util.FxTimer;
+import org.reactfx.util.Timer;
 import at.crowdware.bookdesigner.controls.BottomSlidePane;
+import at.crowdware.bookdesigner.controls.OverviewRuler;
 import at.crowdware.bookdesigner.editor.FindReplacePane.HitsChangeListener;
 import at.crowdware.bookdesigner.editor.MarkdownSyntaxHighlighter.ExtraStyledRanges;
 import at.crowdware.bookdesigner.options.MarkdownExtensions;
 import at.crowdware.bookdesigner.options.Options;
 import at.crowdware.bookdesigner.spellchecker.SpellChecker;
+import at.crowdware.bookdesigner.util.DocumentSnapshot;
 
 /**
  * Markdown editor pane.
  *
  * Uses flexmark-java (https://github.com/vsch/flexmark-java) for parsing markdown.
  *
+ * Markdown is parsed deferred and in a background thread.
+ * Each text change increments a text version. Parse results are only
+ * published (snapshot property) and highlighted
+ * if they are still up to date; otherwise they are dropped.
+ * If possible, only the blocks touched by text changes are re-parsed
+ * (see {@link IncrementalParser}).
+ *
  * @author Karl Tauber
  */
 public class MarkdownEditorPane
 {
 	private final BottomSlidePane borderPane;
 	private final MarkdownTextArea textArea;
+	private final MarkdownSyntaxHighlighter highlighter;
+	private final EmbeddedImageSegments embeddedImageSegments;
 	private final ParagraphOverlayGraphicFactory overlayGraphicFactory;
+	private final OverviewRuler overviewRuler;
 	private LineNumberGutterFactory lineNumberGutterFactory;
 	private WhitespaceOverlayFactory whitespaceOverlayFactory;
 	private ContextMenu contextMenu;
@@ -102,6 +119,27 @@ public class MarkdownEditorPane
 	private String lineSeparator = getLineSeparatorOrDefault();
 	private String extension = "";
 
+	// delay after last text change before parsing starts
+	private static final Duration PARSE_DELAY = Duration.ofMillis(50);
+
+	// global executor used for parsing markdown of all editors
+	private static ExecutorService parseExecutor;
+
+	// text version is incremented on each text change (read in parse thread)
+	private volatile int textVersion;
+	private int publishedTextVersion;
+	private String textToParse;
+	private final Timer parseTimer;
+	private Future<?> parseFuture;
+
+	// text changes since last publish and parser used for published markdownAST
+	private final IncrementalParser incrementalParser = new IncrementalParser();
+	private Parser publishedParser;
+
+	// snapshot of the last loaded or saved text
+	private int savedTextVersion = -1;
+	private DocumentSnapshot savedSnapshot;
+
 	public MarkdownEditorPane(String ext) {
 		extension = ext;
 		textArea = new MarkdownTextArea();
@@ -110,11 +148,22 @@ public class MarkdownEditorPane
 		textArea.getStyleClass().add("markdown-editor");
 		textArea.getStylesheets().add("at/crowdware/bookdesigner/editor/BookDesigner.css");
 		textArea.getStylesheets().add("at/crowdware/bookdesigner/prism.css");
+		highlighter = new MarkdownSyntaxHighlighter(textArea);
+		embeddedImageSegments = new EmbeddedImageSegments(textArea);
 
+		parseTimer = FxTimer.create(PARSE_DELAY, this::parseAsync);
 		textArea.textProperty().addListener((observable, oldText, newText) -> {
 			textChanged(newText);
 			hideContextMenu();
 		});
+		textArea.plainTextChanges().subscribe(e -> {
+			int position = e.getPosition();
+			int removedLength = e.getRemoved().length();
+			int insertedLength = e.getInserted().length();
+			incrementalParser.textChanged(position, removedLength, insertedLength);
+			findHitsTextChanged(position, removedLength, insertedLength);
+			embeddedImageSegments.textChanged(position, removedLength, insertedLength);
+		});
 
 		textArea.addEventHandler(ContextMenuEvent.CONTEXT_MENU_REQUESTED, this::showContextMenu);
 		textArea.addEventHandler(MouseEvent.MOUSE_PRESSED, e -> hideContextMenu());
@@ -147,13 +196,13 @@ public class MarkdownEditorPane
 		updateShowWhitespace();
 
 		// initialize properties
-		markdownText.set("");
-		markdownAST.set(parseMarkdown(""));
+		snapshot.set(new DocumentSnapshot(0, "", parseMarkdown("")));
 
-		spellChecker = new SpellChecker(this, textArea, overlayGraphicFactory);
+		overviewRuler = new OverviewRuler(textArea);
+		spellChecker = new SpellChecker(this, textArea, overlayGraphicFactory, overviewRuler);
 
 		// find/replace
-		findReplacePane = new FindReplacePane(textArea);
+		findReplacePane = new FindReplacePane(textArea, overviewRuler);
 		findHitsChangeListener = this::findHitsChanged;
 		findReplacePane.addListener(findHitsChangeListener);
 		findReplacePane.visibleProperty().addListener((ov, oldVisible, newVisible) -> {
@@ -290,15 +339,13 @@ public class MarkdownEditorPane
 	}
 	public ObservableValue<String> markdownProperty() { return textArea.textProperty(); }
 
-	// 'markdownText' property
-	private final ReadOnlyStringWrapper markdownText = new ReadOnlyStringWrapper();
-	public String getMarkdownText() { return markdownText.get(); }
-	public ReadOnlyStringProperty markdownTextProperty() { return markdownText.getReadOnlyProperty(); }
+	// 'snapshot' property
+	// (getSnapshot() parses immediately if the published snapshot is outdated)
+	private final ReadOnlyObjectWrapper<DocumentSnapshot> snapshot = new ReadOnlyObjectWrapper<>();
+	public DocumentSnapshot getSnapshot() { parseNow(); return snapshot.get(); }
+	public ReadOnlyObjectProperty<DocumentSnapshot> snapshotProperty() { return snapshot.getReadOnlyProperty(); }
 
-	// 'markdownAST' property
-	private final ReadOnlyObjectWrapper<Node> markdownAST = new ReadOnlyObjectWrapper<>();
-	public Node getMarkdownAST() { return markdownAST.get(); }
-	public ReadOnlyObjectProperty<Node> markdownASTProperty() { return markdownAST.getReadOnlyProperty(); }
+	public Node getMarkdownAST() { return getSnapshot().getFlexmarkAST(); }
 
 	// 'selection' property
 	public ObservableValue<IndexRange> selectionProperty() { return textArea.selectionProperty(); }
@@ -325,50 +372,184 @@ public class MarkdownEditorPane
 	}
 
 	private void textChanged(String newText) {
-		if (borderPane.getBottom() != null) {
-			findReplacePane.removeListener(findHitsChangeListener);
-			findReplacePane.textChanged();
-			findReplacePane.addListener(findHitsChangeListener);
-		}
-
 		if (isReadOnly())
 			newText = "";
 
-		Node astRoot = null;
-		System.out.println(extension);
-		if (extension != null && extension.equals("md")) {
-			astRoot = parseMarkdown(newText);
+		// pending highlighting is outdated
+		highlighter.cancel();
+
+		textVersion++;
+		textToParse = newText;
+
+		if (!isMarkdown()) {
+			// nothing to parse --> publish immediately
+			cancelParse();
+			publish(textVersion, newText, null);
+			return;
+		}
+
+		// parse deferred (restarts timer if already running)
+		parseTimer.restart();
+	}
+
+	private boolean isMarkdown() {
+		return extension != null && extension.equals("md");
+	}
+
+	/**
+	 * Parses the current text in the background.
+	 * Invoked from parseTimer after a short delay since the last text change.
+	 */
+	private void parseAsync() {
+		cancelParse();
+
+		if (parseExecutor == null) {
+			parseExecutor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+				thread.setDaemon(true); // allow quitting app without shutting down executor
+				return thread;
+			});
+		}
+
+		int version = textVersion;
+		String text = textToParse;
+		Parser parser = getParser();
+		DocumentSnapshot oldSnapshot = snapshot.get();
+		Node oldAST = oldSnapshot.getFlexmarkAST();
+		IncrementalParser incrementalParser = (parser == publishedParser && oldAST instanceof Document &&
+				!isReadOnly())
+			? this.incrementalParser.copy()
+			: null;
+		parseFuture = parseExecutor.submit(() -> {
+			if (version != textVersion)
+				return; // outdated
+
+			// re-parse changed blocks only, if possible
+			IncrementalParser.Splice splice = (incrementalParser != null)
+				? incrementalParser.parse(parser, (Document) oldAST, text)
+				: null;
+			Node astRoot = (splice != null) ? splice.apply() : parser.parse(text);
+			Platform.runLater(() -> parseFinished(version, text, astRoot));
+		});
+	}
+
+	private void parseFinished(int version, String text, Node astRoot) {
+		if (version != textVersion || version == publishedTextVersion)
+			return; // text has changed in the meantime or already parsed --> drop result
+
+		parseFuture = null;
+		publish(version, text, astRoot);
+	}
+
+	/**
+	 * Parses the current text immediately (in the FX thread)
+	 * if the published markdownAST is outdated.
+	 */
+	private void parseNow() {
+		if (publishedTextVersion == textVersion)
+			return;
+
+		cancelParse();
+		publish(textVersion, textToParse, isMarkdown() ? parseMarkdown(textToParse) : null);
+	}
+
+	private void cancelParse() {
+		parseTimer.stop();
+		if (parseFuture != null) {
+			parseFuture.cancel(false);
+			parseFuture = null;
+		}
+	}
+
+	private void publish(int version, String text, Node astRoot) {
+		publishedTextVersion = version;
+		publishedParser = (astRoot != null) ? parser : null;
+		textToParse = null;
+		incrementalParser.reset();
 
+		if (astRoot != null) {
 			if (Options.isShowImagesEmbedded())
-				EmbeddedImage.replaceImageSegments(textArea, astRoot, getParentPath());
+				embeddedImageSegments.update(astRoot, getParentPath());
 
 			applyHighlighting(astRoot);
 		}
-		markdownText.set(newText);
-		markdownAST.set(astRoot);
+		DocumentSnapshot newSnapshot = new DocumentSnapshot(version, text, astRoot);
+		if (version == savedTextVersion)
+			savedSnapshot = newSnapshot;
+		snapshot.set(newSnapshot);
+	}
+
+	/**
+	 * Returns whether the snapshot property is up to date with the current text.
+	 */
+	public boolean isMarkdownASTUpToDate() {
+		return publishedTextVersion == textVersion;
+	}
+
+	private void findHitsTextChanged(int position, int removedLength, int insertedLength) {
+		if (borderPane.getBottom() == null)
+			return;
+
+		// hits are highlighted when the new AST is published
+		findReplacePane.removeListener(findHitsChangeListener);
+		findReplacePane.textChanged(position, removedLength, insertedLength);
+		findReplacePane.addListener(findHitsChangeListener);
 	}
 
 	private void findHitsChanged() {
-		applyHighlighting(markdownAST.get());
+		// if the AST is outdated, highlighting is done when the new AST is published
+		// (only paragraphs with changed hits are restyled)
+		if (isMarkdownASTUpToDate() && snapshot.get().getFlexmarkAST() != null)
+			highlighter.highlightExtraStyledRanges(extraStyledRanges());
+	}
+
+	/**
+	 * Invoked after the text was loaded from or saved to file.
+	 * The snapshot of this text version is kept because it is needed to find
+	 * modified paragraphs on next save (incremental parsing never modifies it).
+	 */
+	public void textSaved() {
+		savedTextVersion = textVersion;
+		savedSnapshot = (publishedTextVersion == textVersion) ? snapshot.get() : null;
+	}
+
+	/**
+	 * Returns a snapshot for the given text, which was loaded from file.
+	 * Reuses the snapshot of the last loaded or saved text if possible.
+	 */
+	DocumentSnapshot getSavedSnapshot(String markdown) {
+		String text = lineSeparator.equals("\n") ? markdown : markdown.replace(lineSeparator, "\n");
+		if (savedSnapshot != null && savedSnapshot.getText().equals(text))
+			return savedSnapshot;
+		return new DocumentSnapshot(-1, text, parseMarkdown(text));
 	}
 
 	Node parseMarkdown(String text) {
+		return getParser().parse(text);
+	}
+
+	private Parser getParser() {
 		if (parser == null) {
 			parser = Parser.builder()
 				.extensions(MarkdownExtensions.getFlexmarkExtensions(Options.getMarkdownRenderer()))
 				.build();
 		}
-		return parser.parse(text);
+		return parser;
 	}
 
 	private void applyHighlighting(Node astRoot) {
-		List<ExtraStyledRanges> extraStyledRanges = findReplacePane.hasHits()
+		if (astRoot == null)
+			return;
+
+		highlighter.highlight(astRoot, extraStyledRanges());
+	}
+
+	private List<ExtraStyledRanges> extraStyledRanges() {
+		return findReplacePane.hasHits()
 			? Arrays.asList(
 				new ExtraStyledRanges("hit", findReplacePane.getHits()),
 				new ExtraStyledRanges("hit-active", Arrays.asList(findReplacePane.getActiveHit())))
 			: null;
-		System.out.println("applyHighlighting");
-		MarkdownSyntaxHighlighter.highlight(textArea, astRoot, extraStyledRanges);
 	}
 
 	private void increaseFontSize(KeyEvent e) {
@@ -415,9 +596,9 @@ public class MarkdownEditorPane
 
 	private void updateShowImagesEmbedded() {
 		if (Options.isShowImagesEmbedded())
-			EmbeddedImage.replaceImageSegments(textArea, getMarkdownAST(), getParentPath());
+			embeddedImageSegments.update(getMarkdownAST(), getParentPath());
 		else
-			EmbeddedImage.removeAllImageSegments(textArea);
+			embeddedImageSegments.removeAll();
 	}
 
 	public void undo() {
@@ -28,12 +28,17 @@
 package at.crowdware.bookdesigner.editor;
 
 import java.lang.reflect.Field;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiConsumer;
 import javafx.application.Platform;
 import com.vladsch.flexmark.ast.*;
@@ -54,8 +59,13 @@ import com.vladsch.flexmark.util.ast.VisitHandler;
 import com.vladsch.flexmark.util.ast.Visitor;
 import com.vladsch.flexmark.util.sequence.BasedSequence;
 import org.fxmisc.richtext.model.Paragraph;
+import org.fxmisc.richtext.model.StyleSpan;
+import org.fxmisc.richtext.model.StyleSpans;
 import org.fxmisc.richtext.model.StyleSpansBuilder;
 import org.fxmisc.richtext.model.TwoDimensional.Bias;
+import org.reactfx.util.Either;
+import org.reactfx.util.FxTimer;
+import org.reactfx.util.Timer;
 import at.crowdware.bookdesigner.addons.MarkdownSyntaxHighlighterAddon;
 import at.crowdware.bookdesigner.syntaxhighlighter.SyntaxHighlighter;
 import at.crowdware.bookdesigner.util.Addons;
@@ -66,6 +76,9 @@ import at.crowdware.bookdesigner.util.Range;
  *
  * Uses flexmark-java AST.
  *
+ * Only changed paragraphs are restyled. Visible paragraphs first,
+ * the others in time-sliced chunks (see highlight()).
+ *
  * @author Karl Tauber
  */
 class MarkdownSyntaxHighlighter
@@ -146,7 +159,18 @@ class MarkdownSyntaxHighlighter
 		}
 	}
 
-	private static final HashMap<Long, Collection<String>> styleClassesCache = new HashMap<>();
+	// interned (shared) style class collections, keyed by style bits (including extra style bits)
+	private static final int STYLE_CLASSES_CACHE_MAX_SIZE = 1024;
+	private static final ConcurrentHashMap<Long, Collection<String>> styleClassesCache = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<Collection<String>, Long> styleBitsCache = new ConcurrentHashMap<>();
+	private static final LongAdder styleClassesCacheHits = new LongAdder();
+	private static final LongAdder styleClassesCacheMisses = new LongAdder();
+
+	// extra style classes (e.g. find hits) get stable style bits above the StyleClass bits
+	private static final int FIRST_EXTRA_STYLE_BIT = StyleClass.values().length;
+	private static final String[] extraStyleClasses = new String[Long.SIZE - FIRST_EXTRA_STYLE_BIT];
+	private static final long EXTRA_STYLE_BITS_MASK = -1L << FIRST_EXTRA_STYLE_BIT;
+
 	private static final HashMap<Class<? extends Node>, StyleClass> node2style = new HashMap<>();
 	private static final HashMap<Class<? extends Node>, StyleClass> node2lineStyle = new HashMap<>();
 
@@ -194,26 +218,57 @@ class MarkdownSyntaxHighlighter
 	private static final ServiceLoader<MarkdownSyntaxHighlighterAddon> addons
 		= ServiceLoader.load( MarkdownSyntaxHighlighterAddon.class, Addons.getAddonsClassLoader() );
 
+	// maximum time used to apply styles in one pulse
+	private static final long APPLY_TIME_SLICE = 10_000_000; // nanoseconds
+	private static final Duration APPLY_INTERVAL = Duration.ofMillis(20);
+	private static final int APPLY_CHUNK_SIZE = 100; // paragraphs
+
 	private final MarkdownTextArea textArea;
-	private ArrayList<StyleRange> styleRanges;
-	private ArrayList<StyleRange> lineStyleRanges;
+	// reused for all highlight passes (to avoid allocations)
+	private final StyleRanges styleRanges = new StyleRanges();
+	private final StyleRanges lineStyleRanges = new StyleRanges();
+
+	// currently applied extra styled ranges (e.g. find hits)
+	private StyleRanges extraRanges = new StyleRanges();
+	private StyleRanges spareExtraRanges = new StyleRanges();
+
+	// new styles, which are applied to the paragraphs step by step
+	// (arrays are reused for following highlight passes)
+	private int spanCount;
+	private int[] spanEnds = new int[0];
+	@SuppressWarnings("unchecked")
+	private Collection<String>[] spanStyles = new Collection[0];
+	private int paragraphCount;
+	@SuppressWarnings("unchecked")
+	private Collection<String>[] paragraphStyles = new Collection[0];
+	private int[] paragraphOffsets = new int[1];
+	private boolean[] paragraphDone = new boolean[0];
+	private int remainingCount;
+	private int nextParagraph;
+	private Timer applyTimer;
+	private Node astRoot;
+
+	MarkdownSyntaxHighlighter(MarkdownTextArea textArea) {
+		this.textArea = textArea;
+	}
 
-	static void highlight(MarkdownTextArea textArea, Node astRoot, List<ExtraStyledRanges> extraStyledRanges) {
+	/**
+	 * Highlights the text using the given AST.
+	 *
+	 * Visible paragraphs are styled immediately. Other paragraphs are styled
+	 * in time-sliced chunks in later pulses (for large documents).
+	 */
+	void highlight(Node astRoot, List<ExtraStyledRanges> extraStyledRanges) {
 		assert Platform.isFxApplicationThread();
-
 		assert textArea.getText().length() == textArea.getLength();
-		new MarkdownSyntaxHighlighter(textArea).highlight(astRoot, extraStyledRanges);
-	}
 
-	private MarkdownSyntaxHighlighter(MarkdownTextArea textArea) {
-		this.textArea = textArea;
-	}
+		cancel();
+		this.astRoot = astRoot;
 
-	private void highlight(Node astRoot, List<ExtraStyledRanges> extraStyledRanges) {
 		addonsAddStylesheets();
 
-		styleRanges = new ArrayList<>();
-		lineStyleRanges = new ArrayList<>();
+		styleRanges.clear();
+		lineStyleRanges.clear();
 
 		// visit all nodes
 		NodeVisitor visitor = new NodeVisitor(
@@ -254,70 +309,365 @@ class MarkdownSyntaxHighlighter
 		visitor.visit(astRoot);
 
 		// add extra styled ranges
-		if (extraStyledRanges != null) {
-			long extraStyleBits = 1L << StyleClass.values().length;
-			for (ExtraStyledRanges extraStyledRange : extraStyledRanges) {
-				for (Range extraRange : extraStyledRange.ranges) {
-					addStyledRange(styleRanges, extraRange.start, extraRange.end, extraStyleBits);
-				}
-				extraStyleBits <<= 1;
+		extraRanges.clear();
+		addExtraStyledRanges(extraRanges, extraStyledRanges);
+		for (int i = 0; i < extraRanges.size(); i++)
+			styleRanges.add(extraRanges.begin(i), extraRanges.end(i), extraRanges.styleBits(i));
+
+		// build new text style spans (covering the whole text)
+		int textLength = textArea.getLength();
+		int maxSpanCount = styleRanges.size() * 2 + 1;
+		if (spanEnds.length < maxSpanCount) {
+			int capacity = Math.max(maxSpanCount, spanEnds.length * 2);
+			spanEnds = new int[capacity];
+			@SuppressWarnings("unchecked")
+			Collection<String>[] newSpanStyles = new Collection[capacity];
+			spanStyles = newSpanStyles;
+		}
+		int[] spanEnds = this.spanEnds;
+		Collection<String>[] spanStyles = this.spanStyles;
+		spanCount = 0;
+		int spanStart = 0;
+		for (int i = 0; i < styleRanges.size(); i++) {
+			int begin = styleRanges.begin(i);
+			int end = styleRanges.end(i);
+			if (begin > spanStart) {
+				spanEnds[spanCount] = begin;
+				spanStyles[spanCount++] = Collections.emptyList();
 			}
+			spanEnds[spanCount] = end;
+			spanStyles[spanCount++] = toStyleClasses(styleRanges.styleBits(i));
+			spanStart = end;
+		}
+		if (spanStart < textLength || spanCount == 0) {
+			spanEnds[spanCount] = textLength;
+			spanStyles[spanCount++] = Collections.emptyList();
+		}
 
-			// need to clear cache
-			styleClassesCache.clear();
+		// build new paragraph styles and paragraph offsets
+		List<Paragraph<Collection<String>, Either<String, EmbeddedImage>, Collection<String>>> paragraphs = textArea.getParagraphs();
+		int paragraphCount = paragraphs.size();
+		this.paragraphCount = paragraphCount;
+		if (paragraphDone.length < paragraphCount) {
+			int capacity = Math.max(paragraphCount, paragraphDone.length * 2);
+			@SuppressWarnings("unchecked")
+			Collection<String>[] newParagraphStyles = new Collection[capacity];
+			paragraphStyles = newParagraphStyles;
+			paragraphOffsets = new int[capacity + 1];
+			paragraphDone = new boolean[capacity];
 		}
+		Collection<String>[] paragraphStyles = this.paragraphStyles;
+		int[] paragraphOffsets = this.paragraphOffsets;
+		Arrays.fill(paragraphStyles, 0, paragraphCount, Collections.emptyList());
+		for (int r = 0; r < lineStyleRanges.size(); r++) {
+			Collection<String> ps = toStyleClasses(lineStyleRanges.styleBits(r));
+			int end = Math.min(lineStyleRanges.end(r), paragraphCount);
+			for (int i = lineStyleRanges.begin(r); i < end; i++)
+				paragraphStyles[i] = ps;
+		}
+		int offset = 0;
+		for (int i = 0; i < paragraphCount; i++) {
+			paragraphOffsets[i] = offset;
+			offset += paragraphs.get(i).length() + 1;
+		}
+		paragraphOffsets[paragraphCount] = offset;
 
-		// set text styles
-		StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
+		Arrays.fill(paragraphDone, 0, paragraphCount, false);
+		remainingCount = paragraphCount;
+
+		// start with visible paragraphs
+		nextParagraph = 0;
+		try {
+			int firstVisible = textArea.firstVisibleParToAllParIndex();
+			int lastVisible = textArea.lastVisibleParToAllParIndex();
+			applyStyles(firstVisible, Math.min(lastVisible + 1, paragraphCount));
+			nextParagraph = Math.min(lastVisible + 1, paragraphCount);
+		} catch (AssertionError e) {
+			// may be thrown in textArea.visibleParToAllParIndex()
+			// --> ignore
+		}
+
+		applyRemainingStyles();
+	}
+
+	/**
+	 * Cancels pending styling of paragraphs.
+	 * Invoked when the text changes because the new styles are outdated then.
+	 */
+	void cancel() {
+		if (applyTimer != null) {
+			applyTimer.stop();
+			applyTimer = null;
+		}
+
+		// keep arrays for reuse, but release references to style collections
+		Arrays.fill(spanStyles, 0, spanCount, null);
+		Arrays.fill(paragraphStyles, 0, paragraphCount, null);
+		spanCount = 0;
+		paragraphCount = 0;
+		remainingCount = 0;
+		astRoot = null;
+	}
+
+	/**
+	 * Updates the extra styled ranges (e.g. find hits) without re-highlighting.
+	 *
+	 * Only paragraphs that contain added, removed or changed extra ranges are
+	 * restyled. The Markdown syntax styles of these paragraphs are left alone.
+	 */
+	void highlightExtraStyledRanges(List<ExtraStyledRanges> extraStyledRanges) {
+		assert Platform.isFxApplicationThread();
+
+		if (remainingCount > 0) {
+			// pending paragraphs would get outdated extra styles --> highlight again
+			highlight(astRoot, extraStyledRanges);
+			return;
+		}
+
+		StyleRanges oldExtraRanges = extraRanges;
+		StyleRanges newExtraRanges = spareExtraRanges;
+		newExtraRanges.clear();
+		addExtraStyledRanges(newExtraRanges, extraStyledRanges);
+		extraRanges = newExtraRanges;
+		spareExtraRanges = oldExtraRanges;
+
+		// find paragraphs that contain changed extra ranges
+		// (both lists are sorted, so walk them in parallel)
+		BitSet dirtyParagraphs = new BitSet();
+		int oldSize = oldExtraRanges.size();
+		int newSize = newExtraRanges.size();
+		int i = 0;
+		int j = 0;
+		while (i < oldSize || j < newSize) {
+			if (i < oldSize && j < newSize &&
+				oldExtraRanges.begin(i) == newExtraRanges.begin(j) &&
+				oldExtraRanges.end(i) == newExtraRanges.end(j) &&
+				oldExtraRanges.styleBits(i) == newExtraRanges.styleBits(j))
+			{
+				// unchanged
+				i++;
+				j++;
+				continue;
+			}
+
+			if (j >= newSize || (i < oldSize && oldExtraRanges.begin(i) <= newExtraRanges.begin(j))) {
+				addDirtyParagraphs(dirtyParagraphs, oldExtraRanges.begin(i), oldExtraRanges.end(i));
+				i++;
+			} else {
+				addDirtyParagraphs(dirtyParagraphs, newExtraRanges.begin(j), newExtraRanges.end(j));
+				j++;
+			}
+		}
+
+		// restyle changed paragraphs
+		for (int p = dirtyParagraphs.nextSetBit(0); p >= 0; p = dirtyParagraphs.nextSetBit(p + 1))
+			applyExtraStyles(p);
+	}
+
+	private void addDirtyParagraphs(BitSet dirtyParagraphs, int begin, int end) {
 		int textLength = textArea.getLength();
-		if (textLength > 0) {
-			int spanStart = 0;
-			for (StyleRange range : styleRanges) {
-				if (range.begin > spanStart)
-					spansBuilder.add(Collections.emptyList(), range.begin - spanStart);
-				spansBuilder.add(toStyleClasses(range.styleBits, extraStyledRanges), range.end - range.begin);
-				spanStart = range.end;
+		int first = textArea.offsetToPosition(Math.min(begin, textLength), Bias.Forward).getMajor();
+		int last = textArea.offsetToPosition(Math.min(Math.max(end - 1, begin), textLength), Bias.Forward).getMajor();
+		dirtyParagraphs.set(first, last + 1);
+	}
+
+	/**
+	 * Replaces the extra styles of the given paragraph with the current extra styled ranges.
+	 */
+	private void applyExtraStyles(int paragraphIndex) {
+		Paragraph<Collection<String>, Either<String, EmbeddedImage>, Collection<String>> paragraph
+			= textArea.getParagraph(paragraphIndex);
+		if (paragraph.length() == 0)
+			return;
+
+		int pos = textArea.getAbsolutePosition(paragraphIndex, 0);
+		int extraCount = extraRanges.size();
+		int r = extraRanges.findIndex(pos);
+
+		StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
+		for (StyleSpan<Collection<String>> span : paragraph.getStyleSpans()) {
+			int spanEnd = pos + span.getLength();
+			long syntaxBits = toStyleBits(span.getStyle()) & ~EXTRA_STYLE_BITS_MASK;
+			while (pos < spanEnd) {
+				while (r < extraCount && extraRanges.end(r) <= pos)
+					r++;
+
+				long bits = syntaxBits;
+				int end = spanEnd;
+				if (r < extraCount) {
+					int extraBegin = extraRanges.begin(r);
+					if (extraBegin > pos)
+						end = Math.min(spanEnd, extraBegin);
+					else {
+						bits |= extraRanges.styleBits(r);
+						end = Math.min(spanEnd, extraRanges.end(r));
+					}
+				}
+				spansBuilder.add(toStyleClasses(bits), end - pos);
+				pos = end;
+			}
+		}
+		textArea.setStyleSpans(paragraphIndex, 0, spansBuilder.create());
+	}
+
+	private static void addExtraStyledRanges(StyleRanges ranges, List<ExtraStyledRanges> extraStyledRanges) {
+		if (extraStyledRanges == null)
+			return;
+
+		for (ExtraStyledRanges extraStyledRange : extraStyledRanges) {
+			long extraStyleBits = extraStyleBits(extraStyledRange.styleClass);
+			if (extraStyleBits == 0)
+				continue;
+
+			for (Range extraRange : extraStyledRange.ranges)
+				ranges.add(extraRange.start, extraRange.end, extraStyleBits);
+		}
+	}
+
+	/**
+	 * Applies styles to not yet styled paragraphs until the time slice is used up.
+	 * Visible paragraphs (may have changed due to scrolling) are styled first.
+	 * If there are remaining paragraphs, continues in a later pulse.
+	 */
+	private void applyRemainingStyles() {
+		if (remainingCount <= 0)
+			return;
+
+		long endTime = System.nanoTime() + APPLY_TIME_SLICE;
+		int paragraphCount = this.paragraphCount;
+
+		if (applyTimer != null) {
+			try {
+				int firstVisible = textArea.firstVisibleParToAllParIndex();
+				int lastVisible = textArea.lastVisibleParToAllParIndex();
+				applyStyles(firstVisible, Math.min(lastVisible + 1, paragraphCount));
+			} catch (AssertionError e) {
+				// may be thrown in textArea.visibleParToAllParIndex()
+				// --> ignore
 			}
-			if (spanStart < textLength)
-				spansBuilder.add(Collections.emptyList(), textLength - spanStart);
+		}
+
+		while (remainingCount > 0 && System.nanoTime() < endTime) {
+			if (nextParagraph >= paragraphCount)
+				nextParagraph = 0;
+			int end = Math.min(nextParagraph + APPLY_CHUNK_SIZE, paragraphCount);
+			applyStyles(nextParagraph, end);
+			nextParagraph = end;
+		}
+
+		if (remainingCount > 0) {
+			if (applyTimer == null)
+				applyTimer = FxTimer.runPeriodically(APPLY_INTERVAL, this::applyRemainingStyles);
 		} else
-			spansBuilder.add(Collections.emptyList(), 0);
-		textArea.setStyleSpans(0, spansBuilder.create());
+			cancel();
+	}
+
+	/**
+	 * Applies styles to paragraphs in the given range, if they are not yet styled.
+	 * Only changed paragraphs are restyled (consecutive changed paragraphs at once).
+	 */
+	private void applyStyles(int from, int to) {
+		List<Paragraph<Collection<String>, Either<String, EmbeddedImage>, Collection<String>>> paragraphs = textArea.getParagraphs();
+		int changedStart = -1;
+		for (int i = from; i <= to; i++) {
+			boolean changed = false;
+			if (i < to && !paragraphDone[i]) {
+				paragraphDone[i] = true;
+				remainingCount--;
+
+				Paragraph<Collection<String>, Either<String, EmbeddedImage>, Collection<String>> paragraph = paragraphs.get(i);
+
+				// paragraph (line) style
+				Collection<String> ps = paragraphStyles[i];
+				if (!ps.equals(paragraph.getParagraphStyle())) {
+					// paragraph needs to be restyled if the paragraph style was changed
+					// without notifying RichTextFX
+					if (setParagraphStyle(paragraph, i, ps))
+						changed = true;
+				}
+
+				// text styles
+				int offset = paragraphOffsets[i];
+				if (!changed && !equalStyles(paragraph.getStyleSpans(), offset, findSpanIndex(offset), spanEnds, spanStyles))
+					changed = true;
+			}
+
+			if (changed) {
+				if (changedStart < 0)
+					changedStart = i;
+			} else if (changedStart >= 0) {
+				restyle(changedStart, i);
+				changedStart = -1;
+			}
+		}
+	}
 
-		// set line styles
-		int start = 0;
-		for (StyleRange range : lineStyleRanges) {
-			if (range.begin > start)
-				setParagraphStyle(start, range.begin, Collections.emptyList());
-			setParagraphStyle(range.begin, range.end, toStyleClasses(range.styleBits, null));
-			start = range.end;
+	/**
+	 * Sets the new text styles of the paragraphs in the given range.
+	 */
+	private void restyle(int firstParagraph, int lastParagraphExclusive) {
+		int start = paragraphOffsets[firstParagraph];
+		int end = paragraphOffsets[lastParagraphExclusive] - 1;
+
+		StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
+		int pos = start;
+		for (int j = findSpanIndex(start); pos < end; j++) {
+			int spanEnd = Math.min(spanEnds[j], end);
+			spansBuilder.add(spanStyles[j], spanEnd - pos);
+			pos = spanEnd;
 		}
-		int lineCount = textArea.getParagraphs().size();
-		if (start < lineCount)
-			setParagraphStyle(start, lineCount, Collections.emptyList());
+		if (start == end)
+			spansBuilder.add(Collections.emptyList(), 0);
+		textArea.setStyleSpans(start, spansBuilder.create());
 	}
 
-	private void setParagraphStyle(int start, int end, Collection<String> ps) {
-		for (int i = start; i < end; i++) {
-			Paragraph<?,?,?> paragraph = textArea.getParagraph(i);
-			if (ps != paragraph.getParagraphStyle())
-				setParagraphStyle(paragraph, i, ps);
+	/**
+	 * Returns the index of the new style span that contains the given offset.
+	 */
+	private int findSpanIndex(int offset) {
+		int index = Arrays.binarySearch(spanEnds, 0, spanCount, offset);
+		index = (index >= 0) ? index + 1 : -index - 1;
+		return Math.min(index, spanCount - 1);
+	}
+
+	/**
+	 * Compares the style spans of a paragraph with the new styles.
+	 */
+	private static boolean equalStyles(StyleSpans<Collection<String>> oldSpans, int offset,
+		int spanIndex, int[] spanEnds, Collection<String>[] spanStyles)
+	{
+		int pos = offset;
+		for (StyleSpan<Collection<String>> oldSpan : oldSpans) {
+			int oldSpanEnd = pos + oldSpan.getLength();
+			while (pos < oldSpanEnd) {
+				if (!oldSpan.getStyle().equals(spanStyles[spanIndex]))
+					return false;
+
+				pos = Math.min(oldSpanEnd, spanEnds[spanIndex]);
+				if (pos == spanEnds[spanIndex])
+					spanIndex++;
+			}
 		}
+		return true;
 	}
 
-	private void setParagraphStyle(Paragraph<?,?,?> paragraph, int paragraphIndex, Collection<String> paragraphStyle) {
+	/**
+	 * Returns true if the paragraph style was changed without notifying RichTextFX.
+	 */
+	private boolean setParagraphStyle(Paragraph<?,?,?> paragraph, int paragraphIndex, Collection<String> paragraphStyle) {
 		if (paragraphStyleField != null) {
 			// because StyledTextArea.setParagraphStyle() is very very slow,
 			// especially if invoked many times, we (try to) go the "short way"
 			try {
 				paragraphStyleField.set(paragraph, paragraphStyle);
-				return;
+				return true;
 			} catch (Exception ex) {
 				// ignore
 			}
 		}
 
 		textArea.setParagraphStyle(paragraphIndex, paragraphStyle);
+		return false;
 	}
 
 	private static Field paragraphStyleField;
@@ -330,34 +680,100 @@ class MarkdownSyntaxHighlighter
 		}
 	}
 
-	private Collection<String> toStyleClasses(long bits, List<ExtraStyledRanges> extraStyledRanges) {
+	/**
+	 * Returns an interned, unmodifiable collection of the style classes for the given style bits.
+	 * The same instance is returned for the same bits, which makes comparing styles cheap.
+	 */
+	static Collection<String> toStyleClasses(long bits) {
 		if (bits == 0)
 			return Collections.emptyList();
 
 		Collection<String> styleClasses = styleClassesCache.get(bits);
-		if (styleClasses != null)
+		if (styleClasses != null) {
+			styleClassesCacheHits.increment();
 			return styleClasses;
+		}
+		styleClassesCacheMisses.increment();
 
-		styleClasses = new ArrayList<>(1);
+		ArrayList<String> list = new ArrayList<>(1);
 		for (StyleClass styleClass : StyleClass.values()) {
 			if ((bits & (1L << styleClass.ordinal())) != 0) {
-				styleClasses.add(styleClass.cssClass());
+				list.add(styleClass.cssClass());
 				if (styleClass.cssClass2 != null)
-					styleClasses.add(styleClass.cssClass2);
+					list.add(styleClass.cssClass2);
 			}
 		}
-		if (extraStyledRanges != null) {
-			long extraStyleBits = 1L << StyleClass.values().length;
-			for (ExtraStyledRanges extraStyledRange : extraStyledRanges) {
-				if ((bits & extraStyleBits) != 0)
-					styleClasses.add(extraStyledRange.styleClass);
-				extraStyleBits <<= 1;
+		synchronized (extraStyleClasses) {
+			for (int i = 0; i < extraStyleClasses.length; i++) {
+				if ((bits & (1L << (FIRST_EXTRA_STYLE_BIT + i))) != 0 && extraStyleClasses[i] != null)
+					list.add(extraStyleClasses[i]);
 			}
 		}
-		styleClassesCache.put(bits, styleClasses);
+		styleClasses = Collections.unmodifiableList(list);
+
+		// simple bound: usually there are only a few hundred combinations
+		if (styleClassesCache.size() >= STYLE_CLASSES_CACHE_MAX_SIZE) {
+			styleClassesCache.clear();
+			styleBitsCache.clear();
+		}
+
+		Collection<String> old = styleClassesCache.putIfAbsent(bits, styleClasses);
+		if (old != null)
+			return old;
+		styleBitsCache.put(styleClasses, bits);
 		return styleClasses;
 	}
 
+	/**
+	 * Returns the style bits for the given style classes (inverse of toStyleClasses()).
+	 */
+	static long toStyleBits(Collection<String> styleClasses) {
+		if (styleClasses.isEmpty())
+			return 0;
+
+		Long cachedBits = styleBitsCache.get(styleClasses);
+		if (cachedBits != null)
+			return cachedBits;
+
+		// not (or no longer) in cache --> compute bits
+		long bits = 0;
+		for (StyleClass styleClass : StyleClass.values()) {
+			if (styleClasses.contains(styleClass.cssClass()))
+				bits |= 1L << styleClass.ordinal();
+		}
+		synchronized (extraStyleClasses) {
+			for (int i = 0; i < extraStyleClasses.length; i++) {
+				if (extraStyleClasses[i] != null && styleClasses.contains(extraStyleClasses[i]))
+					bits |= 1L << (FIRST_EXTRA_STYLE_BIT + i);
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * Returns the style bit for the given extra style class.
+	 * Returns 0 if all extra style bits are used.
+	 */
+	static long extraStyleBits(String styleClass) {
+		synchronized (extraStyleClasses) {
+			for (int i = 0; i < extraStyleClasses.length; i++) {
+				if (extraStyleClasses[i] == null)
+					extraStyleClasses[i] = styleClass;
+				if (extraStyleClasses[i].equals(styleClass))
+					return 1L << (FIRST_EXTRA_STYLE_BIT + i);
+			}
+			return 0;
+		}
+	}
+
+	static long getStyleClassesCacheHits() {
+		return styleClassesCacheHits.sum();
+	}
+
+	static long getStyleClassesCacheMisses() {
+		return styleClassesCacheMisses.sum();
+	}
+
 	private void visit(com.vladsch.flexmark.ast.Paragraph node) {
 		addonsHighlightNode(node);
 	}
@@ -421,7 +837,7 @@ class MarkdownSyntaxHighlighter
 			@Override
 			public void accept(int length, String style) {
 				if (style != null)
-					addStyledRange(styleRanges, index, index + length, StyleClass.custom(style, "token"));
+					styleRanges.add(index, index + length, StyleClass.custom(style, "token"));
 				index += length;
 			}
 		};
@@ -437,103 +853,14 @@ class MarkdownSyntaxHighlighter
 		int start = sequence.getStartOffset();
 		int end = sequence.getEndOffset();
 
-		addStyledRange(styleRanges, start, end, styleClass);
+		styleRanges.add(start, end, styleClass);
 	}
 
 	private void setLineStyleClass(Node node, StyleClass styleClass) {
 		int start = textArea.offsetToPosition(node.getStartOffset(), Bias.Forward).getMajor();
 		int end = textArea.offsetToPosition(node.getEndOffset() - 1, Bias.Forward).getMajor() + 1;
 
-		addStyledRange(lineStyleRanges, start, end, styleClass);
-	}
-
-	/**
-	 * Adds a style range to styleRanges.
-	 *
-	 * Makes sure that the ranges are sorted by begin index
-	 * and that there are no overlapping ranges.
-	 * In case the added range overlaps, existing ranges are split.
-	 *
-	 * @param begin the beginning index, inclusive
-	 * @param end   the ending index, exclusive
-	 */
-	/*private*/ static void addStyledRange(ArrayList<StyleRange> styleRanges, int begin, int end, StyleClass styleClass) {
-		long styleBits = 1L << styleClass.ordinal();
-		addStyledRange(styleRanges, begin, end, styleBits);
-	}
-
-	private static void addStyledRange(ArrayList<StyleRange> styleRanges, int begin, int end, long styleBits) {
-		final int lastIndex = styleRanges.size() - 1;
-
-		// check whether list is empty
-		if (styleRanges.isEmpty()) {
-			styleRanges.add(new StyleRange(begin, end, styleBits));
-			return;
-		}
-
-		// check whether new range is after last range
-		final StyleRange lastRange = styleRanges.get(lastIndex);
-		if (begin >= lastRange.end) {
-			styleRanges.add(new StyleRange(begin, end, styleBits));
-			return;
-		}
-
-		// walk existing ranges from last to first
-		for (int i = lastIndex; i >= 0; i--) {
-			StyleRange range = styleRanges.get(i);
-			if (end <= range.begin) {
-				// new range is before existing range (no overlapping) --> nothing yet to do
-				continue;
-			}
-
-			if (begin >= range.end) {
-				// existing range is before new range (no overlapping)
-
-				if (begin < styleRanges.get(i+1).begin) {
-					// new range starts after this range (may overlap next range) --> add
-					int end2 = Math.min(end, styleRanges.get(i+1).begin);
-					styleRanges.add(i + 1, new StyleRange(begin, end2, styleBits));
-				}
-
-				break; // done
-			}
-
-			if (end > range.end) {
-				// new range ends after this range (may overlap next range) --> add
-				int end2 = (i == lastIndex) ? end : Math.min(end, styleRanges.get(i+1).begin);
-				if (end2 > range.end)
-					styleRanges.add(i + 1, new StyleRange(range.end, end2, styleBits));
-			}
-
-			if (begin < range.end && end > range.begin) {
-				// the new range overlaps the existing range somewhere
-
-				if (begin <= range.begin && end >= range.end) {
-					// new range completely overlaps existing range --> merge style bits
-					styleRanges.set(i, new StyleRange(range.begin, range.end, range.styleBits | styleBits));
-				} else if (begin <= range.begin && end < range.end) {
-					// new range overlaps at the begin with existing range --> split range
-					styleRanges.set(i, new StyleRange(range.begin, end, range.styleBits | styleBits));
-					styleRanges.add(i + 1, new StyleRange(end, range.end, range.styleBits));
-				} else if (begin > range.begin && end >= range.end) {
-					// new range overlaps at the end with existing range --> split range
-					styleRanges.set(i, new StyleRange(range.begin, begin, range.styleBits));
-					styleRanges.add(i + 1, new StyleRange(begin, range.end, range.styleBits | styleBits));
-				} else if (begin > range.begin && end < range.end) {
-					// new range is in existing range --> split range
-					styleRanges.set(i, new StyleRange(range.begin, begin, range.styleBits));
-					styleRanges.add(i + 1, new StyleRange(begin, end, range.styleBits | styleBits));
-					styleRanges.add(i + 2, new StyleRange(end, range.end, range.styleBits));
-				}
-			}
-		}
-
-		// check whether new range starts before first range
-		if (begin < styleRanges.get(0).begin) {
-			// add new range (part) before first range
-			int end2 = Math.min(end, styleRanges.get(0).begin);
-			styleRanges.add(0, new StyleRange(begin, end2, styleBits));
-		}
+		lineStyleRanges.add(start, end, styleClass);
 	}
 
 	//---- addons -------------------------------------------------------------
@@ -551,7 +878,7 @@ class MarkdownSyntaxHighlighter
 	private void addonsHighlightNode(com.vladsch.flexmark.ast.Paragraph node) {
 		int startOffset = node.getStartOffset();
 		addonsHighlightText(node.getChars().toString(), (begin, end, style) -> {
-			addStyledRange(styleRanges, startOffset + begin, startOffset + end, StyleClass.custom(style, "token"));
+			styleRanges.add(startOffset + begin, startOffset + end, StyleClass.custom(style, "token"));
 		} );
 	}
 
@@ -560,18 +887,157 @@ class MarkdownSyntaxHighlighter
 			addon.highlight(text, highlighter);
 	}
 
-	//---- class StyleRange ---------------------------------------------------
+	//---- class StyleRanges --------------------------------------------------
 
-	/*private*/ static class StyleRange
+	/**
+	 * Style ranges stored in parallel primitive arrays (begin, end and style bits).
+	 * The arrays grow on demand and are reused for following highlight passes,
+	 * so that a highlight pass does not allocate an object per range.
+	 *
+	 * The ranges are sorted by begin index and do not overlap.
+	 */
+	/*private*/ static class StyleRanges
 	{
-		final int begin;		// inclusive
-		final int end;			// exclusive
-		final long styleBits;	// 1 << StyleClass.ordinal()
-
-		StyleRange(int begin, int end, long styleBits) {
-			this.begin = begin;
-			this.end = end;
-			this.styleBits = styleBits;
+		private static final int INITIAL_CAPACITY = 256;
+
+		private int[] begins = new int[INITIAL_CAPACITY];		// inclusive
+		private int[] ends = new int[INITIAL_CAPACITY];			// exclusive
+		private long[] styleBits = new long[INITIAL_CAPACITY];	// 1 << StyleClass.ordinal()
+		private int size;
+
+		int size() {
+			return size;
+		}
+
+		int begin(int index) {
+			return begins[index];
+		}
+
+		int end(int index) {
+			return ends[index];
+		}
+
+		long styleBits(int index) {
+			return styleBits[index];
+		}
+
+		void clear() {
+			size = 0;
+		}
+
+		/**
+		 * Returns the index of the first range that ends after the given offset.
+		 */
+		int findIndex(int offset) {
+			int index = Arrays.binarySearch(ends, 0, size, offset);
+			return (index >= 0) ? index + 1 : -index - 1;
+		}
+
+		/**
+		 * Adds a style range.
+		 *
+		 * Makes sure that the ranges are sorted by begin index
+		 * and that there are no overlapping ranges.
+		 * In case the added range overlaps, existing ranges are split.
+		 *
+		 * @param begin the beginning index, inclusive
+		 * @param end   the ending index, exclusive
+		 */
+		void add(int begin, int end, StyleClass styleClass) {
+			add(begin, end, 1L << styleClass.ordinal());
+		}
+
+		void add(int begin, int end, long styleBits) {
+			final int lastIndex = size - 1;
+
+			// check whether new range is after last range (or list is empty)
+			if (size == 0 || begin >= ends[lastIndex]) {
+				insert(size, begin, end, styleBits);
+				return;
+			}
+
+			// walk existing ranges from last to first
+			for (int i = lastIndex; i >= 0; i--) {
+				int rangeBegin = begins[i];
+				int rangeEnd = ends[i];
+				long rangeBits = this.styleBits[i];
+				if (end <= rangeBegin) {
+					// new range is before existing range (no overlapping) --> nothing yet to do
+					continue;
+				}
+
+				if (begin >= rangeEnd) {
+					// existing range is before new range (no overlapping)
+
+					if (begin < begins[i+1]) {
+						// new range starts after this range (may overlap next range) --> add
+						int end2 = Math.min(end, begins[i+1]);
+						insert(i + 1, begin, end2, styleBits);
+					}
+
+					break; // done
+				}
+
+				if (end > rangeEnd) {
+					// new range ends after this range (may overlap next range) --> add
+					int end2 = (i == lastIndex) ? end : Math.min(end, begins[i+1]);
+					if (end2 > rangeEnd)
+						insert(i + 1, rangeEnd, end2, styleBits);
+				}
+
+				if (begin < rangeEnd && end > rangeBegin) {
+					// the new range overlaps the existing range somewhere
+
+					if (begin <= rangeBegin && end >= rangeEnd) {
+						// new range completely overlaps existing range --> merge style bits
+						set(i, rangeBegin, rangeEnd, rangeBits | styleBits);
+					} else if (begin <= rangeBegin && end < rangeEnd) {
+						// new range overlaps at the begin with existing range --> split range
+						set(i, rangeBegin, end, rangeBits | styleBits);
+						insert(i + 1, end, rangeEnd, rangeBits);
+					} else if (begin > rangeBegin && end >= rangeEnd) {
+						// new range overlaps at the end with existing range --> split range
+						set(i, rangeBegin, begin, rangeBits);
+						insert(i + 1, begin, rangeEnd, rangeBits | styleBits);
+					} else if (begin > rangeBegin && end < rangeEnd) {
+						// new range is in existing range --> split range
+						set(i, rangeBegin, begin, rangeBits);
+						insert(i + 1, begin, end, rangeBits | styleBits);
+						insert(i + 2, end, rangeEnd, rangeBits);
+					}
+				}
+			}
+
+			// check whether new range starts before first range
+			if (begin < begins[0]) {
+				// add new range (part) before first range
+				int end2 = Math.min(end, begins[0]);
+				insert(0, begin, end2, styleBits);
+			}
+		}
+
+		private void set(int index, int begin, int end, long styleBits) {
+			begins[index] = begin;
+			ends[index] = end;
+			this.styleBits[index] = styleBits;
+		}
+
+		private void insert(int index, int begin, int end, long styleBits) {
+			if (size == begins.length) {
+				int capacity = size * 2;
+				begins = Arrays.copyOf(begins, capacity);
+				ends = Arrays.copyOf(ends, capacity);
+				this.styleBits = Arrays.copyOf(this.styleBits, capacity);
+			}
+
+			int moveCount = size - index;
+			if (moveCount > 0) {
+				System.arraycopy(begins, index, begins, index + 1, moveCount);
+				System.arraycopy(ends, index, ends, index + 1, moveCount);
+				System.arraycopy(this.styleBits, index, this.styleBits, index + 1, moveCount);
+			}
+			set(index, begin, end, styleBits);
+			size++;
 		}
 	}
 
@@ -30,20 +30,29 @@ package at.crowdware.bookdesigner.editor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.IntFunction;
 import javafx.geometry.HPos;
 import javafx.geometry.Insets;
 import javafx.geometry.Rectangle2D;
 import javafx.geometry.VPos;
 import javafx.scene.Node;
+import javafx.scene.Parent;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.Region;
 import javafx.scene.shape.LineTo;
 import javafx.scene.shape.MoveTo;
 import javafx.scene.shape.PathElement;
+import javafx.scene.text.Text;
 
 /**
  * A paragraph graphic factory for StyleClassedTextArea that is able to lay out
@@ -53,6 +62,14 @@ import javafx.scene.shape.PathElement;
  * E.g. used for line numbers. This factory creates a zero size graphic node,
  * which lays out (outside of its bounds) its unmanaged children over paragraph text.
  *
+ * Overlay nodes can be invalidated for a range of paragraphs and a single overlay factory
+ * (see {@link #invalidate(OverlayFactory, int, int)}), which rebuilds only the affected
+ * overlay nodes and keeps gutters and nodes of other overlay factories.
+ *
+ * Overlay factories that return true from {@link OverlayFactory#isPainting()}
+ * do not create nodes, but paint into a single canvas per paragraph,
+ * which is repainted only if invalidated or if the paragraph text size changes.
+ *
  * @author Karl Tauber
  */
 public class ParagraphOverlayGraphicFactory
@@ -62,18 +79,28 @@ public class ParagraphOverlayGraphicFactory
 	private final List<OverlayFactory> overlayFactories = new ArrayList<>();
 	private final List<IntFunction<Node>> gutterFactories = new ArrayList<>();
 
+	/** Paragraph graphics that are currently showing. */
+	private final Set<ParagraphGraphic> showingGraphics = new HashSet<>();
+
 	ParagraphOverlayGraphicFactory(MarkdownTextArea textArea) {
 		this.textArea = textArea;
 	}
 
 	public void addOverlayFactory(OverlayFactory overlayFactory) {
+		boolean wasEmpty = isEmpty();
 		overlayFactories.add(overlayFactory);
-		update();
+		if (wasEmpty)
+			update();
+		else
+			invalidate(overlayFactory);
 	}
 
 	public void removeOverlayFactory(OverlayFactory overlayFactory) {
 		overlayFactories.remove(overlayFactory);
-		update();
+		if (isEmpty())
+			update();
+		else
+			invalidate(overlayFactory);
 	}
 
 	void addGutterFactory(IntFunction<Node> gutterFactory) {
@@ -86,6 +113,28 @@ public class ParagraphOverlayGraphicFactory
 		update();
 	}
 
+	/**
+	 * Rebuilds the overlay nodes of the given overlay factory in all showing paragraphs.
+	 */
+	public void invalidate(OverlayFactory overlayFactory) {
+		invalidate(overlayFactory, 0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Rebuilds the overlay nodes of the given overlay factory in the showing paragraphs
+	 * fromParagraph to toParagraph (inclusive).
+	 * Gutters and overlay nodes of other overlay factories are not affected.
+	 */
+	public void invalidate(OverlayFactory overlayFactory, int fromParagraph, int toParagraph) {
+		for (ParagraphGraphic graphic : showingGraphics) {
+			if (graphic.paragraphIndex >= fromParagraph && graphic.paragraphIndex <= toParagraph)
+				graphic.invalidate(overlayFactory);
+		}
+	}
+
+	/**
+	 * Recreates all paragraph graphics (including gutters).
+	 */
 	public void update() {
 		// temporary remove paragraph graphic factory to update the view
 		IntFunction<? extends Node> factory = textArea.getParagraphGraphicFactory();
@@ -93,11 +142,13 @@ public class ParagraphOverlayGraphicFactory
 		textArea.setParagraphGraphicFactory(factory);
 	}
 
+	private boolean isEmpty() {
+		return overlayFactories.isEmpty() && gutterFactories.isEmpty();
+	}
+
 	@Override
 	public Node apply(int paragraphIndex) {
-		return overlayFactories.isEmpty() && gutterFactories.isEmpty()
-				? null
-				: new ParagraphGraphic(paragraphIndex);
+		return isEmpty() ? null : new ParagraphGraphic(paragraphIndex);
 	}
 
 	//---- class ParagraphGraphic ---------------------------------------------
@@ -109,10 +160,14 @@ public class ParagraphOverlayGraphicFactory
 		private final Node gutter;
 		private final IdentityHashMap<OverlayFactory, List<Node>> overlayNodesMap
 			= new IdentityHashMap<>(overlayFactories.size());
+		private final Set<OverlayFactory> dirtyOverlays = new HashSet<>();
+		private boolean paintDirty = true;
 		private Node paragraphTextNode;
+		private Canvas canvas;
 
 		ParagraphGraphic(int paragraphIndex) {
 			this.paragraphIndex = paragraphIndex;
+			dirtyOverlays.addAll(overlayFactories);
 
 			getStyleClass().add("paragraph-graphic");
 
@@ -138,6 +193,24 @@ public class ParagraphOverlayGraphicFactory
 					});
 				}
 			});
+
+			// remember showing graphics for targeted invalidation
+			sceneProperty().addListener((observable, oldScene, newScene) -> {
+				if (newScene != null)
+					showingGraphics.add(this);
+				else
+					showingGraphics.remove(this);
+			});
+		}
+
+		void invalidate(OverlayFactory overlayFactory) {
+			if (overlayFactory.isPainting()) {
+				if (!paintDirty) {
+					paintDirty = true;
+					requestLayout();
+				}
+			} else if (dirtyOverlays.add(overlayFactory))
+				requestLayout();
 		}
 
 		@Override
@@ -158,19 +231,39 @@ public class ParagraphOverlayGraphicFactory
 				layoutInArea(gutter, 0, 0, gutterWidth, getHeight(), -1, null, true, true, HPos.LEFT, VPos.TOP);
 			}
 
-			// create overlay nodes
-			if (overlayNodesMap.isEmpty() && !overlayFactories.isEmpty())
-				createOverlayNodes();
+			if (overlayFactories.isEmpty() && overlayNodesMap.isEmpty() && canvas == null)
+				return;
+
+			if (paragraphTextNode == null)
+				paragraphTextNode = getParent().lookup(".paragraph-text");
+
+			// create (or rebuild invalidated) overlay nodes
+			if (!dirtyOverlays.isEmpty())
+				updateOverlayNodes();
 
 			// layout overlay nodes
 			layoutOverlayNodes();
-		}
 
-		private void createOverlayNodes() {
+			// paint overlays
+			paintOverlays();
+		}
 
-			paragraphTextNode = getParent().lookup(".paragraph-text");
+		private void updateOverlayNodes() {
+			// remove nodes of invalidated or removed overlay factories
+			Iterator<Map.Entry<OverlayFactory, List<Node>>> it = overlayNodesMap.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<OverlayFactory, List<Node>> e = it.next();
+				if (dirtyOverlays.contains(e.getKey())) {
+					getChildren().removeAll(e.getValue());
+					it.remove();
+				}
+			}
 
+			// create overlay nodes of invalidated or added overlay factories
 			for (OverlayFactory overlayFactory : overlayFactories) {
+				if (overlayFactory.isPainting() || !dirtyOverlays.contains(overlayFactory))
+					continue;
+
 				overlayFactory.init(textArea, paragraphTextNode, gutter);
 				List<Node> nodes = overlayFactory.createOverlayNodes(paragraphIndex);
 				overlayNodesMap.put(overlayFactory, nodes);
@@ -180,12 +273,76 @@ public class ParagraphOverlayGraphicFactory
 
 				getChildren().addAll(nodes);
 			}
+			dirtyOverlays.clear();
 		}
 
 		private void layoutOverlayNodes() {
 			for (OverlayFactory overlayFactory : overlayFactories) {
+				List<Node> nodes = overlayNodesMap.get(overlayFactory);
+				if (nodes == null || nodes.isEmpty())
+					continue;
+
 				overlayFactory.init(textArea, paragraphTextNode, gutter);
-				overlayFactory.layoutOverlayNodes(paragraphIndex, overlayNodesMap.get(overlayFactory));
+				overlayFactory.layoutOverlayNodes(paragraphIndex, nodes);
+			}
+		}
+
+		private void paintOverlays() {
+			boolean painting = false;
+			for (OverlayFactory overlayFactory : overlayFactories) {
+				if (overlayFactory.isPainting()) {
+					painting = true;
+					break;
+				}
+			}
+
+			if (!painting) {
+				if (canvas != null) {
+					getChildren().remove(canvas);
+					canvas = null;
+				}
+				return;
+			}
+
+			// canvas covers the paragraph text (without insets)
+			Region textNode = (Region) paragraphTextNode;
+			Insets textInsets = textNode.getInsets();
+			double x = ((gutter != null) ? gutter.prefWidth(-1) : 0) + textInsets.getLeft();
+			double y = textInsets.getTop();
+			double width = Math.ceil(textNode.getWidth() - textInsets.getLeft());
+			double height = Math.ceil(textNode.getHeight() - textInsets.getTop());
+			if (width <= 0 || height <= 0)
+				return;
+
+			if (canvas == null) {
+				canvas = new Canvas();
+				canvas.setManaged(false);
+				canvas.setMouseTransparent(true);
+				getChildren().add(canvas);
+				paintDirty = true;
+			}
+
+			canvas.setLayoutX(x);
+			canvas.setLayoutY(y);
+
+			// repaint only if invalidated or if size changed (e.g. wrapped text)
+			if (!paintDirty && canvas.getWidth() == width && canvas.getHeight() == height)
+				return;
+
+			paintDirty = false;
+			canvas.setWidth(width);
+			canvas.setHeight(height);
+
+			GraphicsContext gc = canvas.getGraphicsContext2D();
+			gc.clearRect(0, 0, width, height);
+			for (OverlayFactory overlayFactory : overlayFactories) {
+				if (!overlayFactory.isPainting())
+					continue;
+
+				overlayFactory.init(textArea, paragraphTextNode, gutter);
+				gc.save();
+				overlayFactory.paintOverlay(paragraphIndex, gc);
+				gc.restore();
 			}
 		}
 	}
@@ -206,8 +363,29 @@ public class ParagraphOverlayGraphicFactory
 			this.gutterWidth = -1;
 		}
 
-		public abstract List<Node> createOverlayNodes(int paragraphIndex);
-		public abstract void layoutOverlayNodes(int paragraphIndex, List<Node> nodes);
+		/**
+		 * Returns whether this factory paints into the paragraph canvas
+		 * (see {@link #paintOverlay(int, GraphicsContext)}) instead of creating nodes.
+		 * Painting is much cheaper than nodes if there are many decorations.
+		 */
+		public boolean isPainting() {
+			return false;
+		}
+
+		public List<Node> createOverlayNodes(int paragraphIndex) {
+			return Collections.emptyList();
+		}
+
+		public void layoutOverlayNodes(int paragraphIndex, List<Node> nodes) {
+		}
+
+		/**
+		 * Paints the decorations of the given paragraph.
+		 * The origin of the graphics context is at the top-left corner
+		 * of the paragraph text (inside insets).
+		 */
+		public void paintOverlay(int paragraphIndex, GraphicsContext gc) {
+		}
 
 		protected MarkdownTextArea getTextArea() {
 			return textArea;
@@ -265,6 +443,25 @@ public class ParagraphOverlayGraphicFactory
 			return rectangles;
 		}
 
+		/**
+		 * Returns the text node of the paragraph that contains the character at the given index.
+		 * Useful to get font and fill of text.
+		 */
+		protected Text getTextNode(int index) {
+			Text lastText = null;
+			int pos = 0;
+			for (Node node : ((Parent)paragraphTextNode).getChildrenUnmodifiable()) {
+				if (node instanceof Text) {
+					lastText = (Text) node;
+					pos += lastText.getText().length();
+					if (index < pos)
+						return lastText;
+				} else if (node.isManaged())
+					pos++; // embedded node (e.g. image)
+			}
+			return lastText;
+		}
+
 		protected Insets getInsets() {
 			Insets insets = ((Region)paragraphTextNode).getInsets();
 			if (gutter != null) {
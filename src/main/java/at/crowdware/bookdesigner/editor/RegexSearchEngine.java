@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2015 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.editor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import at.crowdware.bookdesigner.util.Range;
+
+/**
+ * Finds occurrences of a regular expression.
+ *
+ * Compiled patterns are cached, so that searching again for the same
+ * regular expression (e.g. after text changes) does not recompile it.
+ *
+ * Not thread-safe (caches the matcher). Use copy() to search in another thread.
+ *
+ * @author Karl Tauber
+ */
+class RegexSearchEngine
+	implements SearchEngine
+{
+	// the pattern cache is cleared when it reaches this size
+	private static final int MAX_PATTERN_CACHE_SIZE = 64;
+
+	private static final ConcurrentHashMap<String, Pattern> patternCache = new ConcurrentHashMap<>();
+
+	private final Pattern pattern;
+
+	private String matcherText;
+	private Matcher matcher;
+
+	RegexSearchEngine(Pattern pattern) {
+		this.pattern = pattern;
+	}
+
+	/**
+	 * Returns the compiled pattern for the given regular expression.
+	 */
+	static Pattern compile(String regex, boolean matchCase)
+		throws PatternSyntaxException
+	{
+		String key = matchCase ? regex : ("(?i)" + regex);
+		Pattern pattern = patternCache.get(key);
+		if (pattern == null) {
+			pattern = Pattern.compile(key);
+			if (patternCache.size() >= MAX_PATTERN_CACHE_SIZE)
+				patternCache.clear();
+			patternCache.put(key, pattern);
+		}
+		return pattern;
+	}
+
+	@Override
+	public Range find(String text, int fromIndex) {
+		if (text != matcherText) {
+			matcher = pattern.matcher(text);
+			matcherText = text;
+		}
+		return (fromIndex <= text.length() && matcher.find(fromIndex))
+			? new Range(matcher.start(), matcher.end())
+			: null;
+	}
+
+	@Override
+	public SearchEngine copy() {
+		return new RegexSearchEngine(pattern);
+	}
+}
@@ -117,7 +117,7 @@ public class SmartEdit
 //		textArea.selectionProperty().addListener((ob, o, n) ->
 //			System.out.println(findNodes(n.getStart(), n.getEnd(), (s, e, node) -> true, true)));
 
-		editor.markdownASTProperty().addListener((ob, o, n) -> updateStateProperties());
+		editor.snapshotProperty().addListener((ob, o, n) -> updateStateProperties());
 		textArea.selectionProperty().addListener((ob, o, n) -> updateStateProperties());
 	}
 
@@ -133,6 +133,11 @@ public class SmartEdit
 		Platform.runLater(() -> {
 			updateStatePropertiesRunLaterPending = false;
 
+			// avoid parsing in FX thread while typing
+			// (invoked again when the new AST is published)
+			if (!editor.isMarkdownASTUpToDate())
+				return;
+
 			List<Node> nodesAtSelection = findNodesAtSelection((s, e, n) -> true, true, false);
 
 			boolean bold = false;
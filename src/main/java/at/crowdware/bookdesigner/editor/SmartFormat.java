@@ -86,7 +86,8 @@ class SmartFormat
 		// find paragraphs in old markdown
 		HashSet<BasedSequence> oldParagraphs = new HashSet<>();
 		if (oldMarkdown != null) {
-			Node oldMarkdownAST = editor.parseMarkdown(oldMarkdown);
+			// reuse snapshot of last saved text (instead of parsing it again)
+			Node oldMarkdownAST = editor.getSavedSnapshot(oldMarkdown).getFlexmarkAST();
 			NodeVisitor visitor = new NodeVisitor(Collections.emptyList()) {
 				@Override
 				protected void processNode(Node node, boolean withChildren, BiConsumer<Node, Visitor<Node>> processor) {
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2018 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.editor;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.imageio.ImageIO;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.Image;
+import at.crowdware.bookdesigner.util.Utils;
+
+/**
+ * On-disk cache of scaled down project images (PNG files), so that
+ * embedded images do not need to be decoded from the original
+ * (often high-resolution) images in each session.
+ *
+ * Thumbnails are stored in the project metadata directory.
+ * The file name of a thumbnail is derived from the image path (relative to the project),
+ * the thumbnail size and the modification time and length of the image file.
+ * So a modified image gets a new thumbnail, and outdated thumbnails are deleted
+ * when thumbnails are generated.
+ *
+ * @author Karl Tauber
+ */
+public class ThumbnailCache
+{
+	public static final String METADATA_DIR = ".bookdesigner-cache";
+	private static final String THUMBNAILS_DIR = METADATA_DIR + "/thumbnails";
+	private static final String THUMBNAIL_EXT = ".png";
+
+	private static ExecutorService executor;
+	private static File generatingProject;
+
+	/**
+	 * Generates missing thumbnails of all images of the given project
+	 * in background threads (one per CPU core) and deletes outdated thumbnails.
+	 * Must be invoked on the FX thread.
+	 */
+	public static void generateThumbnails(File project) {
+		if (project == null || project.equals(generatingProject))
+			return;
+		generatingProject = project;
+
+		int maxSize = EmbeddedImage.MAX_SIZE;
+		ExecutorService executor = getExecutor();
+		executor.execute(() -> {
+			List<Path> images = collectImages(project.toPath());
+
+			// delete outdated thumbnails
+			HashSet<String> thumbnailNames = new HashSet<>();
+			for (Path image : images) {
+				File thumbnailFile = getThumbnailFile(project, image.toFile(), maxSize);
+				if (thumbnailFile != null)
+					thumbnailNames.add(thumbnailFile.getName());
+			}
+			File[] thumbnailFiles = new File(project, THUMBNAILS_DIR).listFiles();
+			if (thumbnailFiles != null) {
+				for (File thumbnailFile : thumbnailFiles) {
+					if (!thumbnailNames.contains(thumbnailFile.getName()))
+						thumbnailFile.delete();
+				}
+			}
+
+			// generate missing thumbnails
+			for (Path image : images)
+				executor.execute(() -> generateThumbnail(project, image.toFile(), maxSize));
+		});
+	}
+
+	private static void generateThumbnail(File project, File imageFile, int maxSize) {
+		File thumbnailFile = getThumbnailFile(project, imageFile, maxSize);
+		if (thumbnailFile == null || thumbnailFile.isFile())
+			return;
+
+		// small images are loaded directly
+		String imageUrl = imageFile.toURI().toString();
+		double[] size = EmbeddedImageLoader.readImageSize(imageUrl);
+		if (size != null && size[0] <= maxSize && size[1] <= maxSize)
+			return;
+
+		Image image = new Image(imageUrl, maxSize, maxSize, true, true, false);
+		if (!image.isError())
+			write(thumbnailFile, image);
+	}
+
+	/**
+	 * Returns the thumbnail of the given image, or null if there is no (up-to-date) thumbnail.
+	 */
+	static Image loadThumbnail(File project, File imageFile, int maxSize) {
+		File thumbnailFile = getThumbnailFile(project, imageFile, maxSize);
+		if (thumbnailFile == null || !thumbnailFile.isFile())
+			return null;
+
+		Image image = new Image(thumbnailFile.toURI().toString(), false);
+		return !image.isError() ? image : null;
+	}
+
+	/**
+	 * Stores the thumbnail of the given image.
+	 */
+	static void saveThumbnail(File project, File imageFile, int maxSize, Image image) {
+		File thumbnailFile = getThumbnailFile(project, imageFile, maxSize);
+		if (thumbnailFile != null)
+			write(thumbnailFile, image);
+	}
+
+	/**
+	 * Returns the thumbnail file of the given image,
+	 * or null if the image is not in the project or does not exist.
+	 */
+	private static File getThumbnailFile(File project, File imageFile, int maxSize) {
+		Path projectPath = project.toPath();
+		Path imagePath = imageFile.toPath().normalize();
+		if (!imagePath.startsWith(projectPath))
+			return null;
+
+		long lastModified = imageFile.lastModified();
+		if (lastModified == 0)
+			return null; // does not exist
+
+		String key = projectPath.relativize(imagePath).toString().replace('\\', '/')
+			+ '\0' + maxSize + '\0' + lastModified + '\0' + imageFile.length();
+		String name = UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+		return new File(new File(project, THUMBNAILS_DIR), name + THUMBNAIL_EXT);
+	}
+
+	private static void write(File thumbnailFile, Image image) {
+		BufferedImage bufferedImage = SwingFXUtils.fromFXImage(image, null);
+		Path path = thumbnailFile.toPath();
+		try {
+			Files.createDirectories(path.getParent());
+
+			// write to temporary file and rename it so that readers never see incomplete files
+			Path tempFile = Files.createTempFile(path.getParent(), "thumbnail", ".tmp");
+			try {
+				if (!ImageIO.write(bufferedImage, "png", tempFile.toFile()))
+					return;
+
+				try {
+					Files.move(tempFile, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				} catch (AtomicMoveNotSupportedException ex) {
+					Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
+				}
+			} finally {
+				Files.deleteIfExists(tempFile);
+			}
+		} catch (IOException ex) {
+			// ignore; the thumbnail is generated again next time
+		}
+	}
+
+	private static List<Path> collectImages(Path projectDir) {
+		List<Path> images = new ArrayList<>();
+		try {
+			Files.walkFileTree(projectDir, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+					return (!dir.equals(projectDir) && dir.getFileName().toString().startsWith("."))
+						? FileVisitResult.SKIP_SUBTREE
+						: FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					String name = file.getFileName().toString();
+					if (attrs.isRegularFile() && Utils.isImage(name) && !name.toLowerCase().endsWith(".svg"))
+						images.add(file);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException ex) {
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException ex) {
+			// ignore
+		}
+		return images;
+	}
+
+	private static ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+				Thread thread = new Thread(runnable, "BookDesigner thumbnail generator");
+				thread.setDaemon(true); // allow quitting app without shutting down executor
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			});
+		}
+		return executor;
+	}
+}
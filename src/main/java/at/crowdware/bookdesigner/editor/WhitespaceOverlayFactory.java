@@ -27,21 +27,18 @@
 
 package at.crowdware.bookdesigner.editor;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import javafx.geometry.Insets;
 import javafx.geometry.Rectangle2D;
 import javafx.geometry.VPos;
-import javafx.scene.Node;
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.text.Text;
-import org.fxmisc.richtext.model.Paragraph;
 import at.crowdware.bookdesigner.editor.ParagraphOverlayGraphicFactory.OverlayFactory;
-import at.crowdware.bookdesigner.util.Range;
 
 /**
  * Shows whitespace characters.
  *
+ * Whitespace glyphs are painted into the paragraph canvas using
+ * font and fill of the text they belong to.
+ *
  * @author Karl Tauber
  */
 class WhitespaceOverlayFactory
@@ -52,57 +49,41 @@ class WhitespaceOverlayFactory
 	private static final String EOL   = "\u00B6";
 
 	@Override
-	public List<Node> createOverlayNodes(int paragraphIndex) {
-		Paragraph<?, ?, Collection<String>> par = getTextArea().getParagraph(paragraphIndex);
+	public boolean isPainting() {
+		return true;
+	}
+
+	@Override
+	public void paintOverlay(int paragraphIndex, GraphicsContext gc) {
+		String text = getTextArea().getParagraph(paragraphIndex).getText();
+
+		gc.setTextBaseline(VPos.TOP);
+		gc.setGlobalAlpha(0.3);
 
-		ArrayList<Node> nodes = new ArrayList<>();
-		String text = par.getText();
 		int textLength = text.length();
 		for (int i = 0; i < textLength; i++) {
 			char ch = text.charAt(i);
 			if (ch != ' ' && ch != '\t')
 				continue;
 
-			nodes.add(createTextNode(
-					(ch == ' ') ? SPACE : TAB,
-					par.getStyleOfChar(i),
-					i, i + 1));
+			Rectangle2D bounds = getBounds(i, i + 1);
+			paintGlyph(gc, (ch == ' ') ? SPACE : TAB, i, bounds.getMinX(), bounds.getMinY());
 		}
 
-		nodes.add(createTextNode(EOL,
-				par.getStyleAtPosition(textLength),
-				textLength - 1, textLength));
-
-		return nodes;
-	}
-
-	private Text createTextNode(String text, Collection<String> styleClasses, int start, int end) {
-		Text t = new Text(text);
-		t.setTextOrigin(VPos.TOP);
-		t.getStyleClass().add("text");
-		t.setOpacity(0.3);
-		t.getStyleClass().addAll(styleClasses);
-		t.setUserData(new Range(start, end));
-		return t;
+		// all paragraphs except last one have line separators
+		if (paragraphIndex < getTextArea().getParagraphs().size() - 1) {
+			Rectangle2D bounds = getBounds(textLength - 1, textLength);
+			paintGlyph(gc, EOL, Math.max(textLength - 1, 0), bounds.getMaxX(), bounds.getMinY());
+		}
 	}
 
-	@Override
-	public void layoutOverlayNodes(int paragraphIndex, List<Node> nodes) {
-		Insets insets = getInsets();
-		double leftInsets = insets.getLeft();
-		double topInsets = insets.getTop();
+	private void paintGlyph(GraphicsContext gc, String glyph, int index, double x, double y) {
+		Text textNode = getTextNode(index);
+		if (textNode == null)
+			return;
 
-		// all paragraphs except last one have line separators
-		boolean showEOL = (paragraphIndex < getTextArea().getParagraphs().size() - 1);
-		Node eolNode = nodes.get(nodes.size() - 1);
-		if (eolNode.isVisible() != showEOL)
-			eolNode.setVisible(showEOL);
-
-		for (Node node : nodes) {
-			Range range = (Range) node.getUserData();
-			Rectangle2D bounds = getBounds(range.start, range.end);
-			node.setLayoutX(leftInsets + (node == eolNode ? bounds.getMaxX() : bounds.getMinX()));
-			node.setLayoutY(topInsets + bounds.getMinY());
-		}
+		gc.setFont(textNode.getFont());
+		gc.setFill(textNode.getFill());
+		gc.fillText(glyph, x, y);
 	}
 }
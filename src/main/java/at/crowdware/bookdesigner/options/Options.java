@@ -67,6 +67,9 @@ public class Options
 	public enum RendererType { CommonMark, FlexMark }
 	public static final int DEF_WRAP_LINE_LENGTH = 80;
 	public static final int MIN_WRAP_LINE_LENGTH = 10;
+	public static final int DEF_IMAGE_CACHE_SIZE = 64; // MB
+	public static final int DEF_SPELL_CHECKER_THREADS = 0; // number of processors, but at most 4
+	public static final int DEF_MAX_FIND_HITS = 0; // unlimited
 
 	private static Preferences globalOptions;
 	private static Preferences options;
@@ -106,6 +109,15 @@ public class Options
 		// addons settings are always global
 		addonsPath.init(globalOptions, "addonsPath", null);
 
+		// image cache size is global because the cache is shared by all projects
+		imageCacheSize.init(globalOptions, "imageCacheSize", DEF_IMAGE_CACHE_SIZE);
+
+		// spell checker threads are global because spell checking is shared by all projects
+		spellCheckerThreads.init(globalOptions, "spellCheckerThreads", DEF_SPELL_CHECKER_THREADS);
+
+		// max find hits is global because it depends on the machine, not on the project
+		maxFindHits.init(globalOptions, "maxFindHits", DEF_MAX_FIND_HITS);
+
 		// listen to active project
 		ProjectManager.activeProjectProperty().addListener((observer, oldProject, newProject) -> {
 			set(getProjectOptions(newProject));
@@ -146,6 +158,9 @@ public class Options
 		additionalCSS.setPreferences(options);
 
 		addonsPath.setPreferences(globalOptions);
+		imageCacheSize.setPreferences(globalOptions);
+		spellCheckerThreads.setPreferences(globalOptions);
+		maxFindHits.setPreferences(globalOptions);
 	}
 
 	private static Preferences getProjectOptions(File project) {
@@ -342,4 +357,22 @@ public class Options
 	public static String getAddonsPath() { return addonsPath.get(); }
 	public static void setAddonsPath(String addonsPath) { Options.addonsPath.set(addonsPath); }
 	public static StringProperty addonsPathProperty() { return addonsPath; }
+
+	// 'imageCacheSize' property (in MB)
+	private static final PrefsIntegerProperty imageCacheSize = new PrefsIntegerProperty();
+	public static int getImageCacheSize() { return imageCacheSize.get(); }
+	public static void setImageCacheSize(int imageCacheSize) { Options.imageCacheSize.set(Math.max(imageCacheSize, 0)); }
+	public static IntegerProperty imageCacheSizeProperty() { return imageCacheSize; }
+
+	// 'spellCheckerThreads' property (0 means number of processors, but at most 4)
+	private static final PrefsIntegerProperty spellCheckerThreads = new PrefsIntegerProperty();
+	public static int getSpellCheckerThreads() { return spellCheckerThreads.get(); }
+	public static void setSpellCheckerThreads(int spellCheckerThreads) { Options.spellCheckerThreads.set(Math.max(spellCheckerThreads, 0)); }
+	public static IntegerProperty spellCheckerThreadsProperty() { return spellCheckerThreads; }
+
+	// 'maxFindHits' property (0 means unlimited)
+	private static final PrefsIntegerProperty maxFindHits = new PrefsIntegerProperty();
+	public static int getMaxFindHits() { return maxFindHits.get(); }
+	public static void setMaxFindHits(int maxFindHits) { Options.maxFindHits.set(Math.max(maxFindHits, 0)); }
+	public static IntegerProperty maxFindHitsProperty() { return maxFindHits; }
 }
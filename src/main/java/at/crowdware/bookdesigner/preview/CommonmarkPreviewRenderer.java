@@ -55,6 +55,7 @@ import at.crowdware.bookdesigner.addons.PreviewRendererAddon;
 import at.crowdware.bookdesigner.options.MarkdownExtensions;
 import at.crowdware.bookdesigner.util.Addons;
 import at.crowdware.bookdesigner.util.CommonmarkSourcePositions;
+import at.crowdware.bookdesigner.util.DocumentSnapshot;
 import at.crowdware.bookdesigner.util.Range;
 
 /**
@@ -68,29 +69,24 @@ class CommonmarkPreviewRenderer
 	private static final ServiceLoader<PreviewRendererAddon> addons
 		= ServiceLoader.load( PreviewRendererAddon.class, Addons.getAddonsClassLoader() );
 
-	private String markdownText;
-	private com.vladsch.flexmark.util.ast.Node flexAstRoot;
+	private DocumentSnapshot snapshot;
 	private Path path;
-	private Node astRoot;
-	private CommonmarkSourcePositions sourcePositions;
+	private Node addonsAstRoot;
 	private String htmlPreview;
 	private String htmlSource;
 	private String ast;
 
 	@Override
-	public void update(String markdownText, com.vladsch.flexmark.util.ast.Node astRoot, Path path) {
-		assert markdownText != null;
-		assert astRoot != null;
+	public void update(DocumentSnapshot snapshot, Path path) {
+		assert snapshot != null;
 
-		if (this.flexAstRoot == astRoot)
+		if (this.snapshot == snapshot)
 			return;
 
-		this.markdownText = markdownText;
-		this.flexAstRoot = astRoot;
+		this.snapshot = snapshot;
 		this.path = path;
 
-		this.astRoot = null;
-		sourcePositions = null;
+		addonsAstRoot = null;
 		htmlPreview = null;
 		htmlSource = null;
 		ast = null;
@@ -155,26 +151,26 @@ class CommonmarkPreviewRenderer
 	}
 
 	private Node toAstRoot() {
-		if (astRoot == null)
-			astRoot = parseMarkdown(markdownText);
-		return astRoot;
+		return snapshot.getCommonmarkAST();
 	}
 
 	private CommonmarkSourcePositions toSourcePositions() {
-		if (sourcePositions == null)
-			sourcePositions = new CommonmarkSourcePositions(markdownText, toAstRoot());
-		return sourcePositions;
+		return snapshot.getCommonmarkSourcePositions();
 	}
 
 	private String toHtml(boolean source) {
 		Node astRoot;
 		if (addons.iterator().hasNext()) {
-			String text = markdownText;
+			// parse pre-processed text only once for preview and source
+			if (addonsAstRoot == null) {
+				String text = snapshot.getText();
 
-			for (PreviewRendererAddon addon : addons)
-				text = addon.preParse(text, path);
+				for (PreviewRendererAddon addon : addons)
+					text = addon.preParse(text, path);
 
-			astRoot = parseMarkdown(text);
+				addonsAstRoot = parseMarkdown(text);
+			}
+			astRoot = addonsAstRoot;
 		} else {
 			// no addons --> use cached AST
 			astRoot = toAstRoot();
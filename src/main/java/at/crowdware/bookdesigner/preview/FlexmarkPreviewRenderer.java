@@ -36,6 +36,7 @@ import java.util.function.BiConsumer;
 import at.crowdware.bookdesigner.addons.PreviewRendererAddon;
 import at.crowdware.bookdesigner.options.MarkdownExtensions;
 import at.crowdware.bookdesigner.util.Addons;
+import at.crowdware.bookdesigner.util.DocumentSnapshot;
 import at.crowdware.bookdesigner.util.Range;
 import com.vladsch.flexmark.ast.Heading;
 import com.vladsch.flexmark.html.AttributeProvider;
@@ -61,9 +62,8 @@ class FlexmarkPreviewRenderer
 	private static final ServiceLoader<PreviewRendererAddon> addons
 		= ServiceLoader.load( PreviewRendererAddon.class, Addons.getAddonsClassLoader() );
 
-	private String markdownText;
-	private Node astRoot;
-	private Node astRoot2;
+	private DocumentSnapshot snapshot;
+	private Node addonsAstRoot;
 	private Path path;
 
 	private String htmlPreview;
@@ -71,18 +71,16 @@ class FlexmarkPreviewRenderer
 	private String ast;
 
 	@Override
-	public void update(String markdownText, Node astRoot, Path path) {
-		assert markdownText != null;
-		assert astRoot != null;
+	public void update(DocumentSnapshot snapshot, Path path) {
+		assert snapshot != null;
 
-		if (this.astRoot == astRoot)
+		if (this.snapshot == snapshot)
 			return;
 
-		this.markdownText = markdownText;
-		this.astRoot = astRoot;
+		this.snapshot = snapshot;
 		this.path = path;
 
-		astRoot2 = null;
+		addonsAstRoot = null;
 		htmlPreview = null;
 		htmlSource = null;
 		ast = null;
@@ -112,7 +110,7 @@ class FlexmarkPreviewRenderer
 	public List<Range> findSequences(int startOffset, int endOffset) {
 		ArrayList<Range> sequences = new ArrayList<>();
 
-		Node astRoot = toAstRoot();
+		Node astRoot = snapshot.getFlexmarkAST();
 		if (astRoot == null)
 			return sequences;
 
@@ -148,27 +146,22 @@ class FlexmarkPreviewRenderer
 		return parser.parse(text);
 	}
 
-	private Node toAstRoot() {
-		if (!addons.iterator().hasNext())
-			return astRoot; // no addons --> use AST from editor
-
-		if (astRoot2 == null)
-			astRoot2 = parseMarkdown(markdownText);
-		return astRoot2;
-	}
-
 	private String toHtml(boolean source) {
 		Node astRoot;
 		if (addons.iterator().hasNext()) {
-			String text = markdownText;
+			// parse pre-processed text only once for preview and source
+			if (addonsAstRoot == null) {
+				String text = snapshot.getText();
 
-			for (PreviewRendererAddon addon : addons)
-				text = addon.preParse(text, path);
+				for (PreviewRendererAddon addon : addons)
+					text = addon.preParse(text, path);
 
-			astRoot = parseMarkdown(text);
+				addonsAstRoot = parseMarkdown(text);
+			}
+			astRoot = addonsAstRoot;
 		} else {
-			// no addons --> use cached AST
-			astRoot = toAstRoot();
+			// no addons --> use AST from editor
+			astRoot = snapshot.getFlexmarkAST();
 		}
 
 		if (astRoot == null)
@@ -187,7 +180,7 @@ class FlexmarkPreviewRenderer
 	}
 
 	private String printTree() {
-		Node astRoot = toAstRoot();
+		Node astRoot = snapshot.getFlexmarkAST();
 		if (astRoot == null)
 			return "";
 
@@ -34,12 +34,12 @@ import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleObjectProperty;
-import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.value.WeakChangeListener;
 import javafx.scene.control.IndexRange;
 import javafx.scene.layout.BorderPane;
 import at.crowdware.bookdesigner.options.Options;
 import at.crowdware.bookdesigner.options.Options.RendererType;
+import at.crowdware.bookdesigner.util.DocumentSnapshot;
 import at.crowdware.bookdesigner.util.Range;
 import com.vladsch.flexmark.util.ast.Node;
 
@@ -64,7 +64,7 @@ public class MarkdownPreviewPane
 	private Preview activePreview;
 
 	interface Renderer {
-		void update(String markdownText, Node astRoot, Path path);
+		void update(DocumentSnapshot snapshot, Path path);
 		String getHtml(boolean source);
 		String getAST();
 		List<Range> findSequences(int startOffset, int endOffset);
@@ -79,6 +79,7 @@ public class MarkdownPreviewPane
 
 	interface PreviewContext {
 		Renderer getRenderer();
+		DocumentSnapshot getSnapshot();
 		String getMarkdownText();
 		Node getMarkdownAST();
 		Path getPath();
@@ -90,15 +91,15 @@ public class MarkdownPreviewPane
 
 		previewContext = new PreviewContext() {
 			@Override public Renderer getRenderer() { return activeRenderer; }
-			@Override public String getMarkdownText() { return markdownText.get(); }
-			@Override public Node getMarkdownAST() { return markdownAST.get(); }
+			@Override public DocumentSnapshot getSnapshot() { return snapshot.get(); }
+			@Override public String getMarkdownText() { return snapshot.get().getText(); }
+			@Override public Node getMarkdownAST() { return snapshot.get().getFlexmarkAST(); }
 			@Override public Path getPath() { return path.get(); }
 			@Override public IndexRange getEditorSelection() { return editorSelection.get(); }
 		};
 
 		path.addListener((observable, oldValue, newValue) -> update() );
-		markdownText.addListener((observable, oldValue, newValue) -> update() );
-		markdownAST.addListener((observable, oldValue, newValue) -> update() );
+		snapshot.addListener((observable, oldValue, newValue) -> update() );
 		scrollY.addListener((observable, oldValue, newValue) -> scrollY());
 		editorSelection.addListener((observable, oldValue, newValue) -> editorSelectionChanged());
 
@@ -161,7 +162,10 @@ public class MarkdownPreviewPane
 		Platform.runLater(() -> {
 			updateRunLaterPending = false;
 
-			activeRenderer.update(markdownText.get(), markdownAST.get(), path.get());
+			if (snapshot.get() == null)
+				return;
+
+			activeRenderer.update(snapshot.get(), path.get());
 			activePreview.update(previewContext, activeRenderer);
 		});
 	}
@@ -210,13 +214,9 @@ public class MarkdownPreviewPane
 	private final ObjectProperty<Path> path = new SimpleObjectProperty<>();
 	public ObjectProperty<Path> pathProperty() { return path; }
 
-	// 'markdownText' property
-	private final SimpleStringProperty markdownText = new SimpleStringProperty();
-	public SimpleStringProperty markdownTextProperty() { return markdownText; }
-
-	// 'markdownAST' property
-	private final ObjectProperty<Node> markdownAST = new SimpleObjectProperty<>();
-	public ObjectProperty<Node> markdownASTProperty() { return markdownAST; }
+	// 'snapshot' property
+	private final ObjectProperty<DocumentSnapshot> snapshot = new SimpleObjectProperty<>();
+	public ObjectProperty<DocumentSnapshot> snapshotProperty() { return snapshot; }
 
 	// 'scrollY' property
 	private final DoubleProperty scrollY = new SimpleDoubleProperty();
@@ -51,6 +51,7 @@ import at.crowdware.bookdesigner.FileEditorManager;
 import at.crowdware.bookdesigner.controls.FileTreeCell;
 import at.crowdware.bookdesigner.controls.FileTreeItem;
 import at.crowdware.bookdesigner.controls.FileTreeView;
+import at.crowdware.bookdesigner.editor.ThumbnailCache;
 import at.crowdware.bookdesigner.util.Utils;
 
 /**
@@ -146,7 +147,8 @@ class ProjectFileTreeView
 
 	private boolean acceptFile(File dir, String name) {
 		return !name.startsWith(".") ||
-			!(name.equals(".git") || name.equals(".hg") || name.equals(".svn") || name.equals(".DS_Store"));
+			!(name.equals(".git") || name.equals(".hg") || name.equals(".svn") || name.equals(".DS_Store") ||
+			  name.equals(ThumbnailCache.METADATA_DIR));
 	}
 
 	private void loadExpanded() {
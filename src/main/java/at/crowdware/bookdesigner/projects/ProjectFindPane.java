@@ -0,0 +1,405 @@
+/*
+ * Copyright (c) 2018 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.projects;
+
+import static javafx.scene.input.KeyCode.ENTER;
+import static javafx.scene.input.KeyCode.ESCAPE;
+import static javafx.scene.input.KeyCombination.SHORTCUT_DOWN;
+import static org.fxmisc.wellbehaved.event.EventPattern.keyPressed;
+import static org.fxmisc.wellbehaved.event.InputMap.consume;
+import static org.fxmisc.wellbehaved.event.InputMap.sequence;
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+import javafx.collections.ObservableList;
+import javafx.scene.Node;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Alert.AlertType;
+import javafx.scene.control.Button;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.ContentDisplay;
+import javafx.scene.control.Label;
+import javafx.scene.control.ToggleButton;
+import javafx.scene.control.Tooltip;
+import javafx.scene.control.TreeCell;
+import javafx.scene.control.TreeItem;
+import javafx.scene.control.TreeView;
+import javafx.scene.input.MouseButton;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import org.controlsfx.control.textfield.CustomTextField;
+import org.fxmisc.wellbehaved.event.Nodes;
+import org.reactfx.util.FxTimer;
+import org.reactfx.util.Timer;
+import at.crowdware.bookdesigner.BookDesignerApp;
+import at.crowdware.bookdesigner.FileEditorManager;
+import at.crowdware.bookdesigner.Messages;
+import at.crowdware.bookdesigner.editor.HitFinder;
+import at.crowdware.bookdesigner.projects.ProjectSearch.FileHits;
+import at.crowdware.bookdesigner.projects.ProjectSearch.Hit;
+import at.crowdware.bookdesigner.util.PrefsBooleanProperty;
+import at.crowdware.bookdesigner.util.Utils;
+import org.tbee.javafx.scene.layout.fxml.MigPane;
+import de.jensd.fx.glyphs.fontawesome.FontAwesomeIcon;
+import de.jensd.fx.glyphs.fontawesome.utils.FontAwesomeIconFactory;
+
+/**
+ * Find and replace in all files of the active project.
+ *
+ * @author Karl Tauber
+ */
+class ProjectFindPane
+{
+	private static final Duration FIND_DELAY = Duration.ofMillis(200);
+
+	private static PrefsBooleanProperty matchCase = new PrefsBooleanProperty(
+			BookDesignerApp.getState(), "projectFindMatchCase", false);
+	private static PrefsBooleanProperty regex = new PrefsBooleanProperty(
+			BookDesignerApp.getState(), "projectFindRegex", false);
+
+	private final FileEditorManager fileEditorManager;
+	private final Timer findTimer = FxTimer.create(FIND_DELAY, this::findAll);
+
+	private VBox pane;
+	private MigPane formPane;
+	private CustomTextField findField;
+	private ToggleButton matchCaseButton;
+	private ToggleButton regexButton;
+	private Button closeButton;
+	private CustomTextField replaceField;
+	private Button replaceAllButton;
+	private Label infoLabel;
+	private TreeView<Object> resultsView;
+
+	private ProjectSearch search;
+	private boolean searching;
+	private int hitCount;
+	private boolean hitsCapped;
+
+	ProjectFindPane(FileEditorManager fileEditorManager) {
+		this.fileEditorManager = fileEditorManager;
+
+		ProjectManager.activeProjectProperty().addListener((observer, oldProject, newProject) -> {
+			if (pane != null && pane.isVisible())
+				findAll();
+		});
+	}
+
+	Node getNode() {
+		if (pane != null)
+			return pane;
+
+		findField = new CustomTextField();
+		matchCaseButton = new ToggleButton("Aa");
+		regexButton = new ToggleButton(".*");
+		closeButton = new Button();
+		replaceField = new CustomTextField();
+		replaceAllButton = new Button(Messages.get("ProjectFindPane.replaceAllButton.text"));
+		infoLabel = new Label();
+		resultsView = new TreeView<>(new TreeItem<>());
+
+		formPane = new MigPane();
+		formPane.setLayout("insets 0,hidemode 3");
+		formPane.setCols(
+			"[grow,fill]1px" +
+			"[pref:n,fill]1px" +
+			"[pref:n,fill]" +
+			"[pref:n,fill]");
+		formPane.setRows(
+			"[]" +
+			"[]" +
+			"[]");
+		formPane.add(findField, "cell 0 0");
+		formPane.add(matchCaseButton, "cell 1 0");
+		formPane.add(regexButton, "cell 2 0");
+		formPane.add(closeButton, "cell 3 0");
+		formPane.add(replaceField, "cell 0 1");
+		formPane.add(replaceAllButton, "cell 1 1 3 1");
+		formPane.add(infoLabel, "cell 0 2 4 1");
+
+		pane = new VBox(formPane, resultsView);
+		VBox.setVgrow(resultsView, Priority.ALWAYS);
+		pane.setVisible(false);
+		pane.setManaged(false);
+
+		pane.getStyleClass().add("project-find");
+		formPane.getStyleClass().add("find-replace");
+		matchCaseButton.getStyleClass().add("flat-button");
+		regexButton.getStyleClass().add("flat-button");
+		closeButton.getStyleClass().addAll("close", "flat-button");
+		infoLabel.getStyleClass().add("project-find-info");
+		resultsView.getStyleClass().add("project-find-results");
+
+		matchCaseButton.setFocusTraversable(false);
+		regexButton.setFocusTraversable(false);
+		closeButton.setFocusTraversable(false);
+
+		closeButton.setGraphic(FontAwesomeIconFactory.get().createIcon(FontAwesomeIcon.CLOSE));
+		findField.setLeft(FontAwesomeIconFactory.get().createIcon(FontAwesomeIcon.SEARCH));
+		replaceField.setLeft(FontAwesomeIconFactory.get().createIcon(FontAwesomeIcon.RETWEET));
+		findField.setPromptText(Messages.get("ProjectFindPane.findField.promptText"));
+		replaceField.setPromptText(Messages.get("ProjectFindPane.replaceField.promptText"));
+
+		matchCaseButton.setTooltip(new Tooltip(Messages.get("ProjectFindPane.matchCaseButton.tooltip")));
+		regexButton.setTooltip(new Tooltip(Messages.get("ProjectFindPane.regexButton.tooltip")));
+		closeButton.setTooltip(new Tooltip(Messages.get("ProjectFindPane.closeButton.tooltip")));
+
+		findField.textProperty().addListener((ov, o, n) -> findTimer.restart());
+		Nodes.addInputMap(findField, sequence(
+				consume(keyPressed(ENTER),	e -> findAll()),
+				consume(keyPressed(ESCAPE),	e -> hide())));
+		Nodes.addInputMap(replaceField, sequence(
+				consume(keyPressed(ENTER, SHORTCUT_DOWN), e -> replaceAll()),
+				consume(keyPressed(ESCAPE),	e -> hide())));
+		closeButton.setOnAction(e -> hide());
+		replaceAllButton.setOnAction(e -> replaceAll());
+
+		matchCaseButton.setOnAction(e -> {
+			findAll();
+			matchCase.set(matchCaseButton.isSelected());
+		} );
+		regexButton.setOnAction(e -> {
+			findAll();
+			regex.set(regexButton.isSelected());
+		});
+		matchCaseButton.setSelected(matchCase.get());
+		regexButton.setSelected(regex.get());
+
+		resultsView.setShowRoot(false);
+		resultsView.setCellFactory(treeView -> new ResultCell());
+		resultsView.setOnMouseClicked(e -> {
+			if (e.getButton() == MouseButton.PRIMARY && e.getClickCount() == 2)
+				openSelectedHit();
+		});
+		Nodes.addInputMap(resultsView, consume(keyPressed(ENTER), e -> openSelectedHit()));
+
+		update();
+
+		return pane;
+	}
+
+	void show() {
+		getNode();
+
+		pane.setVisible(true);
+		pane.setManaged(true);
+		findField.requestFocus();
+		findField.selectAll();
+		findAll();
+	}
+
+	void hide() {
+		findTimer.stop();
+		cancelSearch();
+		clearResults();
+
+		pane.setVisible(false);
+		pane.setManaged(false);
+	}
+
+	//---- find ----
+
+	private void findAll() {
+		findTimer.stop();
+		cancelSearch();
+		clearResults();
+		Utils.error(findField, false);
+
+		File project = ProjectManager.getActiveProject();
+		String find = findField.getText();
+		if (project == null || find.isEmpty()) {
+			update();
+			return;
+		}
+
+		HitFinder finder;
+		try {
+			finder = new HitFinder(find, matchCaseButton.isSelected(), regexButton.isSelected());
+		} catch (PatternSyntaxException ex) {
+			Utils.error(findField, true);
+			update();
+			infoLabel.setText(Messages.get("ProjectFindPane.infoLabel.regexError"));
+			return;
+		}
+
+		searching = true;
+		search = new ProjectSearch(project, finder);
+		search.start(this::fileSearched, () -> {
+			searching = false;
+			update();
+		});
+		update();
+	}
+
+	private void fileSearched(FileHits fileHits) {
+		TreeItem<Object> fileItem = new TreeItem<>(fileHits);
+		ObservableList<TreeItem<Object>> hitItems = fileItem.getChildren();
+		for (Hit hit : fileHits.hits)
+			hitItems.add(new TreeItem<>(hit));
+		fileItem.setExpanded(true);
+
+		// keep files sorted by path (files are searched in parallel)
+		Utils.addSorted(resultsView.getRoot().getChildren(), fileItem,
+			(item1, item2) -> ((FileHits)item1.getValue()).file.compareTo(((FileHits)item2.getValue()).file));
+
+		hitCount += fileHits.hits.size();
+		if (fileHits.capped)
+			hitsCapped = true;
+
+		update();
+	}
+
+	private void cancelSearch() {
+		if (search != null) {
+			search.cancel();
+			search = null;
+		}
+		searching = false;
+	}
+
+	private void clearResults() {
+		resultsView.getRoot().getChildren().clear();
+		hitCount = 0;
+		hitsCapped = false;
+	}
+
+	private void openSelectedHit() {
+		TreeItem<Object> item = resultsView.getSelectionModel().getSelectedItem();
+		if (item == null)
+			return;
+
+		if (item.getValue() instanceof Hit) {
+			Hit hit = (Hit) item.getValue();
+			File file = ((FileHits)item.getParent().getValue()).file;
+			fileEditorManager.openEditor(file, hit.start, hit.end);
+		} else if (item.getValue() instanceof FileHits)
+			fileEditorManager.openEditor(((FileHits)item.getValue()).file);
+	}
+
+	//---- replace ----
+
+	private void replaceAll() {
+		if (search == null || searching || hitCount == 0)
+			return;
+
+		List<File> files = new ArrayList<>();
+		for (TreeItem<Object> fileItem : resultsView.getRoot().getChildren())
+			files.add(((FileHits)fileItem.getValue()).file);
+
+		Alert alert = new Alert(AlertType.CONFIRMATION);
+		alert.initOwner(pane.getScene().getWindow());
+		alert.setTitle(Messages.get("ProjectFindPane.replaceAlert.title"));
+		alert.setHeaderText(null);
+		alert.setContentText(Messages.get("ProjectFindPane.replaceAlert.message", files.size()));
+		if (alert.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK)
+			return;
+
+		// modified editors must be saved first, otherwise they would overwrite the replaced files
+		if (!fileEditorManager.saveAllEditors())
+			return;
+
+		ProjectSearch replaceSearch = search;
+		searching = true;
+		update();
+
+		replaceSearch.replaceAll(files, replaceField.getText(), result -> {
+			fileEditorManager.reloadEditors(result.files);
+
+			findAll();
+
+			if (!result.errors.isEmpty()) {
+				Alert errorAlert = new Alert(AlertType.ERROR);
+				errorAlert.initOwner(pane.getScene().getWindow());
+				errorAlert.setTitle(Messages.get("ProjectFindPane.replaceFailed.title"));
+				errorAlert.setHeaderText(Messages.get("ProjectFindPane.replaceFailed.message"));
+				errorAlert.setContentText(String.join("\n", result.errors));
+				errorAlert.showAndWait();
+			}
+		});
+	}
+
+	//---- update ----
+
+	private void update() {
+		int fileCount = resultsView.getRoot().getChildren().size();
+		String count = (searching || hitsCapped) ? hitCount + "+" : String.valueOf(hitCount);
+		infoLabel.setText(findField.getText().isEmpty()
+			? null
+			: Messages.get("ProjectFindPane.infoLabel.text", count, fileCount));
+
+		Utils.error(findField, !searching && hitCount == 0 && !findField.getText().isEmpty());
+		replaceAllButton.setDisable(searching || hitCount == 0);
+	}
+
+	//---- class ResultCell ---------------------------------------------------
+
+	private static class ResultCell
+		extends TreeCell<Object>
+	{
+		private final Label before = new Label();
+		private final Label hit = new Label();
+		private final Label after = new Label();
+		private final HBox hitBox = new HBox(before, hit, after);
+
+		ResultCell() {
+			hit.getStyleClass().add("hit");
+			after.setMinWidth(0);
+		}
+
+		@Override
+		protected void updateItem(Object item, boolean empty) {
+			super.updateItem(item, empty);
+
+			if (empty || item == null) {
+				setText(null);
+				setGraphic(null);
+			} else if (item instanceof FileHits) {
+				FileHits fileHits = (FileHits) item;
+				File project = ProjectManager.getActiveProject();
+				String path = (project != null)
+					? project.toPath().relativize(fileHits.file.toPath()).toString()
+					: fileHits.file.getName();
+				String count = fileHits.capped ? fileHits.hits.size() + "+" : String.valueOf(fileHits.hits.size());
+				setText(path + "  (" + count + ")");
+				setGraphic(FontAwesomeIconFactory.get().createIcon(FontAwesomeIcon.FILE_TEXT_ALT));
+				setContentDisplay(ContentDisplay.LEFT);
+			} else {
+				Hit h = (Hit) item;
+				before.setText((h.line + 1) + ": " + h.lineText.substring(0, h.lineTextHitStart));
+				hit.setText(h.lineText.substring(h.lineTextHitStart, h.lineTextHitEnd));
+				after.setText(h.lineText.substring(h.lineTextHitEnd));
+				setText(null);
+				setGraphic(hitBox);
+				setContentDisplay(ContentDisplay.GRAPHIC_ONLY);
+			}
+		}
+	}
+}
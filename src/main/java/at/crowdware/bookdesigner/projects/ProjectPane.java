@@ -42,19 +42,27 @@ public class ProjectPane
 	private final VBox pane;
 	private final ProjectsComboBox projectsComboBox;
 	private final ProjectFileTreeView fileTreeView;
+	private final ProjectFindPane findPane;
 
 	public ProjectPane(FileEditorManager fileEditorManager) {
 		projectsComboBox = new ProjectsComboBox(fileEditorManager);
 		fileTreeView = new ProjectFileTreeView(fileEditorManager);
+		findPane = new ProjectFindPane(fileEditorManager);
 
-		pane = new VBox(projectsComboBox, fileTreeView);
+		Node findNode = findPane.getNode();
+		pane = new VBox(projectsComboBox, findNode, fileTreeView);
 		pane.getStyleClass().add("project-pane");
 
 		VBox.setVgrow(projectsComboBox, Priority.NEVER);
+		VBox.setVgrow(findNode, Priority.ALWAYS);
 		VBox.setVgrow(fileTreeView, Priority.ALWAYS);
 	}
 
 	public Node getNode() {
 		return pane;
 	}
+
+	public void findInProject() {
+		findPane.show();
+	}
 }
@@ -0,0 +1,412 @@
+/*
+ * Copyright (c) 2018 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.projects;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import javafx.application.Platform;
+import at.crowdware.bookdesigner.editor.HitFinder;
+import at.crowdware.bookdesigner.options.Options;
+import at.crowdware.bookdesigner.util.LineIndex;
+import at.crowdware.bookdesigner.util.Range;
+
+/**
+ * Finds (and replaces) a string or regular expression in all
+ * markdown and SML files of a project.
+ *
+ * Files are searched in parallel in worker threads (one per CPU core).
+ * The hits of each file are passed to the FX thread as soon as the file is searched.
+ *
+ * @author Karl Tauber
+ */
+class ProjectSearch
+{
+	private static final String[] EXTENSIONS = { ".md", ".sml" };
+
+	// larger files are not searched (same limit as in FileEditor)
+	private static final long MAX_FILE_SIZE = 500_000;
+	// searching a file stops after this number of hits
+	private static final int MAX_HIT_COUNT_PER_FILE = 1000;
+	// line texts of hits are truncated to this length
+	private static final int MAX_LINE_TEXT_LENGTH = 200;
+
+	private static ExecutorService executor;
+
+	private final File projectDir;
+	private final HitFinder finder;
+	private volatile boolean cancelled;
+
+	ProjectSearch(File projectDir, HitFinder finder) {
+		this.projectDir = projectDir;
+		this.finder = finder;
+	}
+
+	HitFinder getFinder() {
+		return finder;
+	}
+
+	/**
+	 * Starts searching.
+	 * fileSearched is invoked (in the FX thread) for each file that contains hits,
+	 * finished is invoked (in the FX thread) when all files have been searched.
+	 * Both are not invoked after cancel().
+	 */
+	void start(Consumer<FileHits> fileSearched, Runnable finished) {
+		ExecutorService executor = getExecutor();
+		executor.execute(() -> {
+			List<Path> files = !cancelled ? collectFiles(projectDir.toPath()) : Collections.emptyList();
+			if (files.isEmpty()) {
+				runLater(finished);
+				return;
+			}
+
+			AtomicInteger remaining = new AtomicInteger(files.size());
+			for (Path file : files) {
+				HitFinder finder = this.finder.copy();
+				executor.execute(() -> {
+					try {
+						FileHits fileHits = !cancelled ? search(file, finder) : null;
+						if (fileHits != null)
+							runLater(() -> fileSearched.accept(fileHits));
+					} finally {
+						if (remaining.decrementAndGet() == 0)
+							runLater(finished);
+					}
+				});
+			}
+		});
+	}
+
+	void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Replaces all hits in the given files.
+	 * Each file is searched again (it may have changed since it was searched)
+	 * and then written atomically (to a temporary file that replaces the original file).
+	 * finished is invoked (in the FX thread) when all files have been processed.
+	 */
+	void replaceAll(List<File> files, String replace, Consumer<ReplaceResult> finished) {
+		ReplaceResult result = new ReplaceResult();
+		if (files.isEmpty()) {
+			finished.accept(result);
+			return;
+		}
+
+		ExecutorService executor = getExecutor();
+		AtomicInteger remaining = new AtomicInteger(files.size());
+		for (File file : files) {
+			HitFinder finder = this.finder.copy();
+			executor.execute(() -> {
+				try {
+					int hitCount = replace(file.toPath(), finder, replace);
+					result.replaced(file, hitCount);
+				} catch (IOException | IllegalArgumentException | IndexOutOfBoundsException ex) {
+					result.failed(file, ex);
+				} finally {
+					if (remaining.decrementAndGet() == 0)
+						Platform.runLater(() -> finished.accept(result));
+				}
+			});
+		}
+	}
+
+	private void runLater(Runnable runnable) {
+		Platform.runLater(() -> {
+			if (!cancelled)
+				runnable.run();
+		});
+	}
+
+	private static ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+				Thread thread = new Thread(runnable, "BookDesigner project search");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return executor;
+	}
+
+	//---- files ----
+
+	private static List<Path> collectFiles(Path projectDir) {
+		List<Path> files = new ArrayList<>();
+		try {
+			Files.walkFileTree(projectDir, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+					return (!dir.equals(projectDir) && dir.getFileName().toString().startsWith("."))
+						? FileVisitResult.SKIP_SUBTREE
+						: FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					if (attrs.isRegularFile() && attrs.size() <= MAX_FILE_SIZE && isSearchable(file))
+						files.add(file);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException ex) {
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException ex) {
+			// ignore
+		}
+		return files;
+	}
+
+	private static boolean isSearchable(Path file) {
+		String name = file.getFileName().toString().toLowerCase();
+		for (String extension : EXTENSIONS) {
+			if (name.endsWith(extension))
+				return true;
+		}
+		return false;
+	}
+
+	private static String read(Path file) throws IOException {
+		byte[] bytes = Files.readAllBytes(file);
+		if (Options.getEncoding() != null) {
+			try {
+				return new String(bytes, Options.getEncoding());
+			} catch (UnsupportedEncodingException ex) {
+				// fallback
+			}
+		}
+		return new String(bytes);
+	}
+
+	/**
+	 * Returns the line separator of the given text (same as the editor does).
+	 */
+	private static String determineLineSeparator(String text) {
+		int index = text.indexOf('\n');
+		return (index > 0 && text.charAt(index - 1) == '\r') ? "\r\n" : "\n";
+	}
+
+	/**
+	 * Converts line separators to '\n' (same as the editor does),
+	 * so that hit offsets match the offsets in the editor.
+	 */
+	private static String normalizeLineSeparators(String text, String lineSeparator) {
+		return lineSeparator.equals("\n") ? text : text.replace(lineSeparator, "\n");
+	}
+
+	private static void write(Path file, String text) throws IOException {
+		byte[] bytes;
+		if (Options.getEncoding() != null) {
+			try {
+				bytes = text.getBytes(Options.getEncoding());
+			} catch (UnsupportedEncodingException ex) {
+				// fallback
+				bytes = text.getBytes();
+			}
+		} else
+			bytes = text.getBytes();
+
+		// write to temporary file in same directory and move it over the original file
+		// so that the original file is either completely replaced or left untouched
+		Path tempFile = Files.createTempFile(file.getParent(), "." + file.getFileName(), ".tmp");
+		try {
+			Files.write(tempFile, bytes);
+			copyAttributes(file, tempFile);
+			try {
+				Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException ex) {
+				Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	/**
+	 * Copies permissions, group and ACL of the original file to the temporary file,
+	 * which is created with restricted permissions (e.g. 0600 on POSIX).
+	 */
+	private static void copyAttributes(Path source, Path target) throws IOException {
+		PosixFileAttributeView sourcePosix = Files.getFileAttributeView(source, PosixFileAttributeView.class);
+		PosixFileAttributeView targetPosix = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+		if (sourcePosix != null && targetPosix != null) {
+			PosixFileAttributes attrs = sourcePosix.readAttributes();
+			targetPosix.setPermissions(attrs.permissions());
+			try {
+				targetPosix.setGroup(attrs.group());
+			} catch (IOException ex) {
+				// ignore (user is not member of group)
+			}
+		}
+
+		AclFileAttributeView sourceAcl = Files.getFileAttributeView(source, AclFileAttributeView.class);
+		AclFileAttributeView targetAcl = Files.getFileAttributeView(target, AclFileAttributeView.class);
+		if (sourceAcl != null && targetAcl != null)
+			targetAcl.setAcl(sourceAcl.getAcl());
+	}
+
+	//---- search ----
+
+	private static FileHits search(Path file, HitFinder finder) {
+		String text;
+		try {
+			text = read(file);
+		} catch (IOException ex) {
+			return null;
+		}
+		text = normalizeLineSeparators(text, determineLineSeparator(text));
+
+		ArrayList<Range> ranges = new ArrayList<>();
+		boolean capped = !finder.findAll(text, ranges, MAX_HIT_COUNT_PER_FILE);
+		if (ranges.isEmpty())
+			return null;
+
+		LineIndex lineIndex = new LineIndex(text);
+		List<Hit> hits = new ArrayList<>(ranges.size());
+		for (Range range : ranges) {
+			int line = lineIndex.getLineOfOffset(range.start);
+			int lineStart = lineIndex.getLineStartOffset(line);
+			int lineEnd = (line + 1 < lineIndex.getLineCount())
+				? lineIndex.getLineStartOffset(line + 1) - 1
+				: text.length();
+
+			// show some text before the hit if the line is too long
+			int textStart = Math.max(lineStart, Math.min(range.start - 20, lineEnd - MAX_LINE_TEXT_LENGTH));
+			int textEnd = Math.min(lineEnd, textStart + MAX_LINE_TEXT_LENGTH);
+			String lineText = text.substring(textStart, textEnd);
+			int hitStart = range.start - textStart;
+			int hitEnd = Math.min(range.end, textEnd) - textStart;
+
+			hits.add(new Hit(range.start, range.end, line, lineText, hitStart, Math.max(hitStart, hitEnd)));
+		}
+
+		return new FileHits(file.toFile(), hits, capped);
+	}
+
+	private static int replace(Path file, HitFinder finder, String replace) throws IOException {
+		// search in normalized text (same hits as in search() and in the editor)
+		// and restore line separators when writing
+		String text = read(file);
+		String lineSeparator = determineLineSeparator(text);
+		text = normalizeLineSeparators(text, lineSeparator);
+
+		ArrayList<Range> hits = new ArrayList<>();
+		finder.findAll(text, hits, Integer.MAX_VALUE);
+		if (hits.isEmpty())
+			return 0;
+
+		StringBuilder buf = new StringBuilder(text.length());
+		buf.append(text, 0, hits.get(0).start);
+		finder.appendReplaced(buf, text, hits, 0, hits.size(), replace);
+		buf.append(text, hits.get(hits.size() - 1).end, text.length());
+
+		String replaced = buf.toString();
+		if (!lineSeparator.equals("\n"))
+			replaced = replaced.replace("\n", lineSeparator);
+		write(file, replaced);
+		return hits.size();
+	}
+
+	//---- class FileHits -----------------------------------------------------
+
+	static class FileHits
+	{
+		final File file;
+		final List<Hit> hits;
+		final boolean capped;
+
+		FileHits(File file, List<Hit> hits, boolean capped) {
+			this.file = file;
+			this.hits = hits;
+			this.capped = capped;
+		}
+	}
+
+	//---- class Hit ----------------------------------------------------------
+
+	static class Hit
+	{
+		final int start;
+		final int end;
+		final int line;			// zero-based
+		final String lineText;	// (part of) the line that contains the hit
+		final int lineTextHitStart;
+		final int lineTextHitEnd;
+
+		Hit(int start, int end, int line, String lineText, int lineTextHitStart, int lineTextHitEnd) {
+			this.start = start;
+			this.end = end;
+			this.line = line;
+			this.lineText = lineText;
+			this.lineTextHitStart = lineTextHitStart;
+			this.lineTextHitEnd = lineTextHitEnd;
+		}
+	}
+
+	//---- class ReplaceResult ------------------------------------------------
+
+	static class ReplaceResult
+	{
+		final List<File> files = new ArrayList<>();
+		final List<String> errors = new ArrayList<>();
+		int hitCount;
+
+		synchronized void replaced(File file, int hitCount) {
+			if (hitCount > 0) {
+				files.add(file);
+				this.hitCount += hitCount;
+			}
+		}
+
+		synchronized void failed(File file, Exception ex) {
+			errors.add(file.getName() + ": " + ex.getMessage());
+		}
+	}
+}
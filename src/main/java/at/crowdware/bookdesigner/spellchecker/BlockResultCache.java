@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2018 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.spellchecker;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.languagetool.markup.AnnotatedText;
+import org.languagetool.markup.TextPart;
+import org.languagetool.rules.RuleMatch;
+
+/**
+ * Caches rule matches of blocks (e.g. paragraphs), keyed by the annotated text
+ * of the block, so that unchanged blocks do not need to be checked again.
+ *
+ * Rule match positions are relative to the start of the block,
+ * which allows reusing them for blocks that moved.
+ *
+ * The cache is bound to a language tool configuration (language and rules).
+ * It must be invalidated if the configuration changes.
+ *
+ * @author Karl Tauber
+ */
+class BlockResultCache
+{
+	private final LinkedHashMap<String, List<RuleMatch>> cache;
+
+	// incremented on invalidation; used to ignore results of checks
+	// that were started before invalidation
+	private int generation;
+
+	BlockResultCache(int maxSize) {
+		cache = new LinkedHashMap<String, List<RuleMatch>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, List<RuleMatch>> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Returns a key for the given annotated text that includes text and markup parts.
+	 */
+	static String key(AnnotatedText text) {
+		StringBuilder buf = new StringBuilder();
+		for (TextPart part : text.getParts()) {
+			buf.append((char) ('0' + part.getType().ordinal()))
+				.append(part.getPart())
+				.append('\0');
+		}
+		return buf.toString();
+	}
+
+	synchronized List<RuleMatch> get(String key) {
+		return cache.get(key);
+	}
+
+	synchronized int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Adds the rule matches of a block, if the cache was not invalidated
+	 * since the given generation (see {@link #getGeneration()}).
+	 */
+	synchronized void put(String key, List<RuleMatch> ruleMatches, int generation) {
+		if (generation == this.generation)
+			cache.put(key, ruleMatches);
+	}
+
+	synchronized void invalidateAll() {
+		generation++;
+		cache.clear();
+	}
+
+	/**
+	 * Removes all blocks that contain the given word.
+	 */
+	synchronized void invalidate(String word) {
+		generation++;
+		Iterator<String> it = cache.keySet().iterator();
+		while (it.hasNext()) {
+			if (it.next().contains(word))
+				it.remove();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2018 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.spellchecker;
+
+import java.util.TreeSet;
+
+/**
+ * Queue of blocks to check, ordered by distance to the visible range of the editor.
+ * Blocks in the visible range are returned first (in document order),
+ * then the nearest blocks above or below the visible range.
+ *
+ * The visible range may change (e.g. when scrolling) while checking.
+ * Thread-safe.
+ *
+ * @author Karl Tauber
+ */
+class CheckQueue
+{
+	// offsets of blocks in document order (blocks do not overlap)
+	private final int[] startOffsets;
+	private final int[] endOffsets;
+
+	// indices of not yet checked blocks
+	private final TreeSet<Integer> remaining = new TreeSet<>();
+
+	private int visibleStart;
+	private int visibleEnd;
+
+	CheckQueue(int[] startOffsets, int[] endOffsets) {
+		this.startOffsets = startOffsets;
+		this.endOffsets = endOffsets;
+
+		for (int i = 0; i < startOffsets.length; i++)
+			remaining.add(i);
+	}
+
+	synchronized void setVisibleRange(int visibleStart, int visibleEnd) {
+		this.visibleStart = visibleStart;
+		this.visibleEnd = visibleEnd;
+	}
+
+	/**
+	 * Removes the block that should be checked next from the queue
+	 * and returns its index. Returns -1 if all blocks were taken.
+	 */
+	synchronized int next() {
+		if (remaining.isEmpty())
+			return -1;
+
+		// first block that ends at or after start of visible range
+		int low = 0;
+		int high = endOffsets.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (endOffsets[mid] < visibleStart)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+
+		Integer below = remaining.lower(low);
+		Integer above = remaining.ceiling(low);
+
+		// take visible or nearest block
+		Integer next;
+		if (above != null && startOffsets[above] <= visibleEnd)
+			next = above;
+		else if (below == null)
+			next = above;
+		else if (above == null)
+			next = below;
+		else
+			next = (visibleStart - endOffsets[below] < startOffsets[above] - visibleEnd) ? below : above;
+
+		remaining.remove(next);
+		return next;
+	}
+}
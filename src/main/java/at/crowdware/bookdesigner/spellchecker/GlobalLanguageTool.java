@@ -35,8 +35,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Consumer;
 import javafx.application.Platform;
 import javafx.beans.InvalidationListener;
 import javafx.beans.property.IntegerProperty;
@@ -55,21 +55,26 @@ import at.crowdware.bookdesigner.options.Options;
  * Global language tool used for all editors (because initialization
  * of JLanguageTool is slow and there can be only one active editor).
  *
+ * Uses a pool of JLanguageTool instances to allow checking blocks in
+ * parallel (JLanguageTool is not thread-safe). All instances share
+ * result caches, ignored words and disabled rules.
+ *
  * @author Karl Tauber
  */
 class GlobalLanguageTool
 {
-	// global JLanguageTool used in executor
-	private JLanguageTool languageTool;
+	// default maximum number of spell checker threads (if not configured)
+	private static final int DEFAULT_MAX_THREADS = 4;
 
-	// global ResultCache used by global JLanguageTool
-	private ResultCacheEx cache;
+	// pool of JLanguageTool instances used in spell checker threads
+	// (may be set to null in another thread)
+	private volatile Pool pool;
 
 	// global user dictionary
 	private UserDictionary userDictionary;
 
 	// global ignored words (keeps ignored words when switching spell checking off and on)
-	private static final Set<String> wordsToBeIgnored = new HashSet<>();
+	private static final Set<String> wordsToBeIgnored = Collections.synchronizedSet(new HashSet<>());
 
 	GlobalLanguageTool() {
 		Options.spellCheckerProperty().addListener((observer, oldValue, newValue) -> {
@@ -87,26 +92,35 @@ class GlobalLanguageTool
 		Options.userDictionaryProperty().addListener(optionsListener);
 
 		Options.disabledRulesProperty().addListener((observer, oldDisabledRules, newDisabledRules) -> {
-			if (!isInitialized())
+			Pool pool = this.pool;
+			if (pool == null)
 				return;
 
-			// remove old disabled rules
-			for (String ruleId : Options.ruleIdDescs2ids(oldDisabledRules))
-				languageTool.enableRule(ruleId);
-
-			// add new disabled rules
-			languageTool.disableRules(Options.ruleIdDescs2ids(newDisabledRules));
+			pool.changeDisabledRules(Options.ruleIdDescs2ids(oldDisabledRules),
+				Options.ruleIdDescs2ids(newDisabledRules));
 
 			requestCheck();
 		});
 	}
 
+	/**
+	 * Returns the number of threads (and JLanguageTool instances) used for spell checking.
+	 * Each JLanguageTool instance needs a lot of memory (especially with grammar checker),
+	 * so by default at most DEFAULT_MAX_THREADS are used; users may configure more.
+	 */
+	static int getThreadCount() {
+		int threads = Options.getSpellCheckerThreads();
+		return (threads > 0)
+			? threads
+			: Math.min(DEFAULT_MAX_THREADS, Runtime.getRuntime().availableProcessors());
+	}
+
 	boolean isInitialized() {
-		return languageTool != null;
+		return pool != null;
 	}
 
 	void initialize() {
-		if (languageTool != null)
+		if (pool != null)
 			return;
 
 		// get language
@@ -120,32 +134,22 @@ class GlobalLanguageTool
 			language = new AmericanEnglish();
 		}
 
-		// create cache
-		cache = new ResultCacheEx(10000, 1, TimeUnit.DAYS);
-
-		// create language tool
-		languageTool = new JLanguageTool(language, null, cache);
-
-		// disable rules
-		languageTool.disableRules(Options.ruleIdDescs2ids(Options.getDisabledRules()));
-		if (!Options.isGrammarChecker()) {
-			for (Rule rule : languageTool.getAllRules()) {
-				if (!rule.isDictionaryBasedSpellingRule())
-					languageTool.disableRule(rule.getId());
-			}
-		}
+		// create pool and first language tool
+		Pool pool = new Pool(language, Options.isGrammarChecker());
+		pool.release(pool.tryCreate());
 
 		// get user dictionary
 		userDictionary = new UserDictionary();
 
 		// ignore words
-		addIgnoreTokens(userDictionary.getWords());
-		addIgnoreTokens(Arrays.asList(wordsToBeIgnored.toArray(new String[wordsToBeIgnored.size()])));
+		pool.addIgnoreTokens(userDictionary.getWords());
+		pool.addIgnoreTokens(Arrays.asList(wordsToBeIgnored.toArray(new String[0])));
+
+		this.pool = pool;
 	}
 
 	private void uninitialize() {
-		languageTool = null;
-		cache = null;
+		pool = null;
 		userDictionary = null;
 	}
 
@@ -170,15 +174,38 @@ class GlobalLanguageTool
 	}
 	private Runnable requestCheckRunnable;
 
+	/**
+	 * Checks the given text. May be invoked concurrently from multiple threads.
+	 */
 	List<RuleMatch> check(AnnotatedText text)
 		throws IllegalStateException, IOException
 	{
-		// languageTool may be set to null in another thread --> get it only once
-		JLanguageTool languageTool = this.languageTool;
-		if (languageTool == null)
+		// pool may be set to null in another thread --> get it only once
+		Pool pool = this.pool;
+		if (pool == null)
 			throw new IllegalStateException();
 
-		return languageTool.check(text);
+		// reuse results of unchanged blocks
+		String key = BlockResultCache.key(text);
+		List<RuleMatch> ruleMatches = pool.blockCache.get(key);
+		if (ruleMatches == null) {
+			int generation = pool.blockCache.getGeneration();
+
+			JLanguageTool languageTool;
+			try {
+				languageTool = pool.acquire();
+			} catch (InterruptedException ex) {
+				throw new IllegalStateException(ex);
+			}
+			try {
+				ruleMatches = languageTool.check(text);
+			} finally {
+				pool.release(languageTool);
+			}
+
+			pool.blockCache.put(key, ruleMatches, generation);
+		}
+		return ruleMatches;
 	}
 
 	void addToUserDictionary(String word) {
@@ -192,22 +219,21 @@ class GlobalLanguageTool
 	}
 
 	private void addIgnoreWord(String word) {
-		cache.invalidate(word);
-		addIgnoreTokens(Collections.singletonList(word));
+		Pool pool = this.pool;
+		if (pool != null) {
+			pool.cache.invalidate(word);
+			pool.blockCache.invalidate(word);
+			pool.addIgnoreTokens(Collections.singletonList(word));
+		}
 		requestCheck();
 	}
 
-	private void addIgnoreTokens(List<String> words) {
-		forEachSpellingCheckRule(rule -> {
-			rule.addIgnoreTokens(words);
-		});
-	}
-
-	private void forEachSpellingCheckRule(Consumer<SpellingCheckRule> action) {
-		for (Rule rule : languageTool.getAllActiveRules()) {
-			if (rule instanceof SpellingCheckRule)
-				action.accept((SpellingCheckRule) rule);
-		}
+	/**
+	 * Returns statistics of the LanguageTool result cache (for diagnostics).
+	 */
+	String getCacheStatistics() {
+		Pool pool = this.pool;
+		return (pool != null) ? pool.cache.toString() : null;
 	}
 
 	void disableRule(Rule rule) {
@@ -221,4 +247,140 @@ class GlobalLanguageTool
 			Options.setDisabledRules(disabledRules.toArray(new String[disabledRules.size()]));
 		}
 	}
+
+	//---- class Pool ---------------------------------------------------------
+
+	/**
+	 * Pool of JLanguageTool instances for one configuration (language and grammar checker).
+	 * Instances are created on demand, up to the number of spell checker threads.
+	 */
+	private static class Pool
+	{
+		private final Language language;
+		private final boolean grammarChecker;
+
+		// ResultCache shared by all JLanguageTool instances
+		final ResultCacheEx cache = new ResultCacheEx(10000, 1, TimeUnit.DAYS);
+
+		// cache of block (paragraph) results
+		final BlockResultCache blockCache = new BlockResultCache(5000);
+
+		private final LinkedBlockingQueue<JLanguageTool> idle = new LinkedBlockingQueue<>();
+
+		// guarded by this
+		private final List<JLanguageTool> instances = new ArrayList<>();
+		private final List<String> ignoreTokens = new ArrayList<>();
+		private List<String> disabledRuleIds;
+		private int instanceCount; // including instances that are being created
+
+		Pool(Language language, boolean grammarChecker) {
+			this.language = language;
+			this.grammarChecker = grammarChecker;
+			this.disabledRuleIds = Options.ruleIdDescs2ids(Options.getDisabledRules());
+		}
+
+		JLanguageTool acquire() throws InterruptedException {
+			JLanguageTool languageTool = idle.poll();
+			if (languageTool != null)
+				return languageTool;
+
+			languageTool = tryCreate();
+			if (languageTool != null)
+				return languageTool;
+
+			return idle.take();
+		}
+
+		void release(JLanguageTool languageTool) {
+			idle.offer(languageTool);
+		}
+
+		/**
+		 * Creates a new instance if less than getThreadCount() instances exist.
+		 * Returns null otherwise.
+		 *
+		 * Creating is slow, so it is done outside of the lock, which is
+		 * also used in the FX thread (e.g. when ignoring a word).
+		 * Configuration changes made while creating are applied afterwards.
+		 */
+		JLanguageTool tryCreate() {
+			// reserve slot
+			List<String> disabledRuleIds;
+			synchronized (this) {
+				if (instanceCount >= getThreadCount())
+					return null;
+				instanceCount++;
+				disabledRuleIds = this.disabledRuleIds;
+			}
+
+			JLanguageTool languageTool;
+			try {
+				languageTool = create(disabledRuleIds);
+			} catch (RuntimeException ex) {
+				synchronized (this) {
+					instanceCount--;
+				}
+				throw ex;
+			}
+
+			synchronized (this) {
+				// disabled rules changed while creating
+				if (this.disabledRuleIds != disabledRuleIds)
+					changeDisabledRules(languageTool, disabledRuleIds, this.disabledRuleIds);
+
+				// ignore words
+				if (!ignoreTokens.isEmpty())
+					addIgnoreTokens(languageTool, ignoreTokens);
+
+				instances.add(languageTool);
+			}
+			return languageTool;
+		}
+
+		private JLanguageTool create(List<String> disabledRuleIds) {
+			JLanguageTool languageTool = new JLanguageTool(language, null, cache);
+
+			// disable rules
+			languageTool.disableRules(disabledRuleIds);
+			if (!grammarChecker) {
+				for (Rule rule : languageTool.getAllRules()) {
+					if (!rule.isDictionaryBasedSpellingRule())
+						languageTool.disableRule(rule.getId());
+				}
+			}
+			return languageTool;
+		}
+
+		synchronized void addIgnoreTokens(List<String> words) {
+			ignoreTokens.addAll(words);
+			for (JLanguageTool languageTool : instances)
+				addIgnoreTokens(languageTool, words);
+		}
+
+		private static void addIgnoreTokens(JLanguageTool languageTool, List<String> words) {
+			for (Rule rule : languageTool.getAllActiveRules()) {
+				if (rule instanceof SpellingCheckRule)
+					((SpellingCheckRule) rule).addIgnoreTokens(words);
+			}
+		}
+
+		synchronized void changeDisabledRules(List<String> oldRuleIds, List<String> newRuleIds) {
+			disabledRuleIds = newRuleIds;
+			for (JLanguageTool languageTool : instances)
+				changeDisabledRules(languageTool, oldRuleIds, newRuleIds);
+
+			blockCache.invalidateAll();
+		}
+
+		private static void changeDisabledRules(JLanguageTool languageTool,
+			List<String> oldRuleIds, List<String> newRuleIds)
+		{
+			// remove old disabled rules
+			for (String ruleId : oldRuleIds)
+				languageTool.enableRule(ruleId);
+
+			// add new disabled rules
+			languageTool.disableRules(newRuleIds);
+		}
+	}
 }
@@ -27,32 +27,58 @@
 
 package at.crowdware.bookdesigner.spellchecker;
 
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import org.languagetool.ResultCache;
 import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.ForwardingCache;
 
 /**
  * A ResultCache that supports invalidation (empty cache).
  *
+ * Keys of both caches are indexed by the words of their sentences,
+ * so that invalidating a word touches only the sentences that contain the word.
+ *
  * @author Karl Tauber
  */
 class ResultCacheEx
 	extends ResultCache
 {
+	// index of keys of both caches
+	private final WordIndex wordIndex = new WordIndex(key ->
+		getMatchesCache().asMap().containsKey(key) || getSentenceCache().asMap().containsKey(key));
+	private boolean indexed = true;
+
 	ResultCacheEx(long maxSize, int expireAfter, TimeUnit timeUnit) {
 		super(maxSize, expireAfter, timeUnit);
+
+		// replace caches with indexing caches
+		indexCache("matchesCache");
+		indexCache("sentenceCache");
 	}
 
 	void invalidateAll() {
 		getMatchesCache().invalidateAll();
 		getSentenceCache().invalidateAll();
+
+		wordIndex.clear();
 	}
 
 	void invalidate(String word) {
-		invalidate(getMatchesCache(), word);
-		invalidate(getSentenceCache(), word);
+		List<Object> keys = indexed ? wordIndex.remove(word) : null;
+		if (keys != null) {
+			getMatchesCache().invalidateAll(keys);
+			getSentenceCache().invalidateAll(keys);
+		} else {
+			invalidate(getMatchesCache(), word);
+			invalidate(getSentenceCache(), word);
+		}
 	}
 
 	private static <T> void invalidate(Cache<T, ?> cache, String word) {
@@ -74,4 +100,86 @@ class ResultCacheEx
 		}
 		return result;
 	}
+
+	//---- index --------------------------------------------------------------
+
+	@SuppressWarnings("unchecked")
+	private void indexCache(String fieldName) {
+		try {
+			Field field = ResultCache.class.getDeclaredField(fieldName);
+			field.setAccessible(true);
+			Cache<Object, Object> cache = (Cache<Object, Object>) field.get(this);
+			field.set(this, new IndexingCache(cache));
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			// index not available --> invalidate(word) scans all keys
+			indexed = false;
+		}
+	}
+
+	//---- statistics ---------------------------------------------------------
+
+	long getSize() {
+		return getMatchesCache().size() + getSentenceCache().size();
+	}
+
+	long getHitCount() {
+		return getMatchesCache().stats().hitCount() + getSentenceCache().stats().hitCount();
+	}
+
+	long getMissCount() {
+		return getMatchesCache().stats().missCount() + getSentenceCache().stats().missCount();
+	}
+
+	long getEvictionCount() {
+		return getMatchesCache().stats().evictionCount() + getSentenceCache().stats().evictionCount();
+	}
+
+	int getIndexedWordCount() {
+		return wordIndex.size();
+	}
+
+	@Override
+	public String toString() {
+		CacheStats matchesStats = getMatchesCache().stats();
+		CacheStats sentenceStats = getSentenceCache().stats();
+		return String.format("matches: %d entries, %.0f%% hits, %d evictions; sentences: %d entries, %.0f%% hits, %d evictions; %d indexed words",
+			getMatchesCache().size(), matchesStats.hitRate() * 100, matchesStats.evictionCount(),
+			getSentenceCache().size(), sentenceStats.hitRate() * 100, sentenceStats.evictionCount(),
+			getIndexedWordCount());
+	}
+
+	//---- class IndexingCache ------------------------------------------------
+
+	/**
+	 * Cache that adds keys to the word index on insert.
+	 */
+	private class IndexingCache
+		extends ForwardingCache.SimpleForwardingCache<Object, Object>
+	{
+		IndexingCache(Cache<Object, Object> delegate) {
+			super(delegate);
+		}
+
+		@Override
+		public void put(Object key, Object value) {
+			super.put(key, value);
+			wordIndex.add(key);
+		}
+
+		@Override
+		public void putAll(Map<? extends Object, ? extends Object> m) {
+			super.putAll(m);
+			for (Object key : m.keySet())
+				wordIndex.add(key);
+		}
+
+		@Override
+		public Object get(Object key, Callable<? extends Object> valueLoader) throws ExecutionException {
+			return super.get(key, () -> {
+				Object value = valueLoader.call();
+				wordIndex.add(key);
+				return value;
+			});
+		}
+	}
 }
@@ -34,6 +34,9 @@ import org.languagetool.rules.RuleMatch;
 /**
  * Spell checker problems of a block (e.g. paragraph).
  *
+ * The block and its problems are relative to the block anchor,
+ * which is moved lazily by the owning {@link SpellProblems}.
+ *
  * @author Karl Tauber
  */
 class SpellBlockProblems
@@ -41,19 +44,70 @@ class SpellBlockProblems
 {
 	final List<SpellProblem> problems;
 
+	private int anchor;
+	private SpellProblems owner;
+	private int index;
+
 	SpellBlockProblems(int fromPos, int toPos, List<RuleMatch> ruleMatches) {
-		super(fromPos, toPos);
+		super(0, toPos - fromPos);
+		anchor = fromPos;
 
 		problems = new ArrayList<>(ruleMatches.size());
 		for (RuleMatch ruleMatch : ruleMatches)
-			problems.add(new SpellProblem(fromPos, ruleMatch));
+			problems.add(new SpellProblem(this, ruleMatch));
+
+		// sort by offset (required for lookups in SpellProblems)
+		problems.sort((p1, p2) -> p1.getFromPos() - p2.getFromPos());
+	}
+
+	/**
+	 * Invoked when this block is added to a SpellProblems at the given index.
+	 * Applies pending offset changes of the previous owner.
+	 */
+	void setOwner(SpellProblems owner, int index) {
+		anchor = getAnchor();
+		this.owner = owner;
+		this.index = index;
+	}
+
+	@Override
+	int getAnchor() {
+		return (owner != null) ? anchor + owner.getDelta(index) : anchor;
 	}
 
 	@Override
 	void updateOffsets(int position, int inserted, int removed) {
-		super.updateOffsets(position, inserted, removed);
+		int relativePosition = position - getAnchor();
+		updateRelativeOffsets(relativePosition, inserted, removed);
 
 		for (SpellProblem problem : problems)
-			problem.updateOffsets(position, inserted, removed);
+			problem.updateRelativeOffsets(relativePosition, inserted, removed);
+	}
+
+	/**
+	 * Returns whether the given block has the same range and the same problems
+	 * (ranges and rules) as this block. Used to find blocks that need repaint.
+	 */
+	boolean isSame(SpellBlockProblems other) {
+		if (getFromPos() != other.getFromPos() ||
+			getToPos() != other.getToPos() ||
+			isValid() != other.isValid() ||
+			problems.size() != other.problems.size())
+		{
+			return false;
+		}
+
+		for (int i = 0; i < problems.size(); i++) {
+			SpellProblem problem = problems.get(i);
+			SpellProblem otherProblem = other.problems.get(i);
+			if (problem.getFromPos() != otherProblem.getFromPos() ||
+				problem.getToPos() != otherProblem.getToPos() ||
+				problem.isValid() != otherProblem.isValid() ||
+				problem.getRule() != otherProblem.getRule())
+			{
+				return false;
+			}
+		}
+		return true;
 	}
 }
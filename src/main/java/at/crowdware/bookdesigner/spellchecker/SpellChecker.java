@@ -38,11 +38,16 @@ import java.io.IOException;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
 import java.util.ServiceLoader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -58,10 +63,12 @@ import javafx.scene.control.MenuItem;
 import javafx.scene.control.SeparatorMenuItem;
 import javafx.scene.input.KeyCombination;
 import javafx.scene.input.KeyEvent;
+import javafx.scene.paint.Color;
 import javafx.scene.text.TextFlow;
 import org.apache.commons.lang3.StringUtils;
 import org.fxmisc.richtext.GenericStyledArea;
 import org.fxmisc.richtext.model.PlainTextChange;
+import org.fxmisc.richtext.model.TwoDimensional.Bias;
 import org.fxmisc.wellbehaved.event.Nodes;
 import org.languagetool.markup.AnnotatedText;
 import org.languagetool.markup.AnnotatedTextBuilder;
@@ -71,12 +78,14 @@ import org.languagetool.rules.spelling.SpellingCheckRule;
 import at.crowdware.bookdesigner.Messages;
 import at.crowdware.bookdesigner.addons.SpellCheckerAddon;
 import at.crowdware.bookdesigner.addons.SpellCheckerAddon.Range;
+import at.crowdware.bookdesigner.controls.OverviewRuler;
 import at.crowdware.bookdesigner.editor.MarkdownEditorPane;
 import at.crowdware.bookdesigner.editor.ParagraphOverlayGraphicFactory;
 import at.crowdware.bookdesigner.options.Options;
 import at.crowdware.bookdesigner.util.Addons;
 import at.crowdware.bookdesigner.util.Utils;
 import org.reactfx.EventStream;
+import org.reactfx.EventStreams;
 import org.reactfx.Subscription;
 import org.reactfx.util.FxTimer;
 import org.reactfx.util.Timer;
@@ -102,18 +111,27 @@ public class SpellChecker
 	private final MarkdownEditorPane editor;
 	private final GenericStyledArea<?, ?, ?> textArea;
 	private final ParagraphOverlayGraphicFactory overlayGraphicFactory;
+	private final OverviewRuler overviewRuler;
 	private int checkRequestID;
 	private ContextMenu quickFixMenu;
 	private int lastQuickFixNavigationDirection;
 
-	private List<SpellBlockProblems> spellProblems;
+	private SpellProblems spellProblems;
 
 	private Subscription textChangesSubscribtion;
+	private Subscription scrollSubscription;
 	private SpellCheckerOverlayFactory spellCheckerOverlayFactory;
+	private OverviewRuler.Layer overviewRulerLayer;
+
+	// queue of currently running check (used to prioritize visible blocks when scrolling)
+	private volatile CheckQueue checkQueue;
 
 	// global executor used for all spell checking
 	private static ExecutorService executor;
 
+	// global executor for additional spell checking threads (used only from executor)
+	private static ExecutorService workerExecutor;
+
 	// global language tool used in executor for all spell checking
 	private static final GlobalLanguageTool languageTool = new GlobalLanguageTool();
 
@@ -121,11 +139,12 @@ public class SpellChecker
 		= ServiceLoader.load( SpellCheckerAddon.class, Addons.getAddonsClassLoader() );
 
 	public SpellChecker(MarkdownEditorPane editor, GenericStyledArea<?, ?, ?> textArea,
-		ParagraphOverlayGraphicFactory overlayGraphicFactory)
+		ParagraphOverlayGraphicFactory overlayGraphicFactory, OverviewRuler overviewRuler)
 	{
 		this.editor = editor;
 		this.textArea = textArea;
 		this.overlayGraphicFactory = overlayGraphicFactory;
+		this.overviewRuler = overviewRuler;
 
 		Nodes.addInputMap(textArea, sequence(
 			consume(keyPressed(PERIOD, SHORTCUT_DOWN),		this::navigateNext),
@@ -160,7 +179,10 @@ public class SpellChecker
 		if (checkRequestID != languageTool.getCheckRequestID() || spellProblems == null) {
 			checkRequestID = languageTool.getCheckRequestID();
 
-			checkAsync(true);
+			// if the snapshot is outdated, the check is started
+			// when the editor publishes the next snapshot
+			if (editor.isMarkdownASTUpToDate())
+				checkAsync(true);
 		}
 	}
 
@@ -175,25 +197,42 @@ public class SpellChecker
 				});
 			}
 
-			// listen to text changes and invoke spell checker after a delay
+			// listen to text changes to update offsets of spell problems
+			// and invoke spell checker after a delay, but only if the editor
+			// has published the snapshot of the current text (parsed in background)
 			EventStream<PlainTextChange> textChanges = textArea.plainTextChanges();
-			textChangesSubscribtion = textChanges
-				.hook(this::updateSpellRangeOffsets)
+			textChangesSubscribtion = textChanges.subscribe(this::updateSpellRangeOffsets).and(
+				textChanges.or(EventStreams.invalidationsOf(editor.snapshotProperty()))
 				.successionEnds(Duration.ofMillis(500))
+				.filter(e -> editor.isMarkdownASTUpToDate())
 				.supplyTask(() -> checkAsync(false))
 				.awaitLatest(textChanges)
-				.subscribe(this::checkFinished);
+				.subscribe(this::checkFinished));
+
+			// check visible blocks first when scrolling while checking
+			scrollSubscription = textArea.estimatedScrollYProperty().observeChanges((observable, oldValue, newValue) -> {
+				CheckQueue checkQueue = this.checkQueue;
+				int[] visibleRange;
+				if (checkQueue != null && (visibleRange = getVisibleRange()) != null)
+					checkQueue.setVisibleRange(visibleRange[0], visibleRange[1]);
+			});
 
 			spellCheckerOverlayFactory = new SpellCheckerOverlayFactory(() -> spellProblems);
 			overlayGraphicFactory.addOverlayFactory(spellCheckerOverlayFactory);
+			overviewRulerLayer = overviewRuler.addLayer(Color.RED);
 
 		} else if (!spellChecker && spellCheckerOverlayFactory != null) {
 			textChangesSubscribtion.unsubscribe();
 			textChangesSubscribtion = null;
+			scrollSubscription.unsubscribe();
+			scrollSubscription = null;
 
 			overlayGraphicFactory.removeOverlayFactory(spellCheckerOverlayFactory);
 			spellCheckerOverlayFactory = null;
 
+			overviewRuler.removeLayer(overviewRulerLayer);
+			overviewRulerLayer = null;
+
 			spellProblems = null;
 
 			if (executor != null) {
@@ -204,13 +243,15 @@ public class SpellChecker
 	}
 
 	private Task<List<SpellBlockProblems>> checkAsync(boolean invokeFinished) {
-		Node astRoot = editor.getMarkdownAST();
+		// use published snapshot (getSnapshot() would parse in FX thread if outdated)
+		Node astRoot = editor.snapshotProperty().get().getFlexmarkAST();
 		boolean updatePeriodically = (spellProblems == null || spellProblems.isEmpty());
+		int[] visibleRange = getVisibleRange();
 
 		Task<List<SpellBlockProblems>> task = new Task<>() {
 			@Override
 			protected List<SpellBlockProblems> call() throws Exception {
-				return check(this, astRoot, updatePeriodically);
+				return check(this, astRoot, updatePeriodically, visibleRange);
 			}
 			@Override
 			protected void succeeded() {
@@ -237,9 +278,11 @@ public class SpellChecker
 
 		if (result.isSuccess()) {
 			List<SpellBlockProblems> newSpellProblems = result.get();
-			if (!Utils.safeEquals(newSpellProblems, spellProblems)) {
-				spellProblems = newSpellProblems;
-				overlayGraphicFactory.update();
+			if (spellProblems == null || !Utils.safeEquals(newSpellProblems, spellProblems.getBlocks())) {
+				SpellProblems oldSpellProblems = spellProblems;
+				spellProblems = new SpellProblems(newSpellProblems);
+				invalidateOverlays((oldSpellProblems != null) ? oldSpellProblems.getBlocks() : null, newSpellProblems);
+				updateOverviewRuler();
 
 				updateQuickFixMenu();
 			}
@@ -249,7 +292,71 @@ public class SpellChecker
 		}
 	}
 
-	private List<SpellBlockProblems> check(Task<?> task, Node astRoot, boolean updatePeriodically) throws IOException {
+	/**
+	 * Rebuilds spell checker overlays only in paragraphs where problems were
+	 * added, removed or changed.
+	 */
+	private void invalidateOverlays(List<SpellBlockProblems> oldSpellProblems, List<SpellBlockProblems> newSpellProblems) {
+		if (spellCheckerOverlayFactory == null)
+			return;
+
+		HashMap<Integer, SpellBlockProblems> newBlocks = new HashMap<>();
+		if (newSpellProblems != null) {
+			for (SpellBlockProblems blockProblems : newSpellProblems) {
+				if (blockProblems.isValid())
+					newBlocks.put(blockProblems.getFromPos(), blockProblems);
+			}
+		}
+
+		// invalidate removed or changed blocks
+		if (oldSpellProblems != null) {
+			for (SpellBlockProblems oldBlockProblems : oldSpellProblems) {
+				if (!oldBlockProblems.isValid())
+					continue;
+
+				SpellBlockProblems newBlockProblems = newBlocks.get(oldBlockProblems.getFromPos());
+				if (newBlockProblems != null && newBlockProblems.isSame(oldBlockProblems))
+					newBlocks.remove(oldBlockProblems.getFromPos()); // unchanged
+				else
+					invalidateOverlays(oldBlockProblems);
+			}
+		}
+
+		// invalidate added or changed blocks
+		for (SpellBlockProblems blockProblems : newBlocks.values())
+			invalidateOverlays(blockProblems);
+	}
+
+	private void invalidateOverlays(SpellRange range) {
+		int length = textArea.getLength();
+		int fromPos = Math.max(Math.min(range.getFromPos(), length), 0);
+		int toPos = Math.max(Math.min(range.getToPos(), length), fromPos);
+		int fromParagraph = textArea.offsetToPosition(fromPos, Bias.Forward).getMajor();
+		int toParagraph = textArea.offsetToPosition(toPos, Bias.Forward).getMajor();
+		overlayGraphicFactory.invalidate(spellCheckerOverlayFactory, fromParagraph, toParagraph);
+	}
+
+	private void updateOverviewRuler() {
+		if (overviewRulerLayer == null)
+			return;
+
+		// mark spelling errors
+		ArrayList<at.crowdware.bookdesigner.util.Range> errors = new ArrayList<>();
+		if (spellProblems != null) {
+			for (SpellBlockProblems blockProblems : spellProblems.getBlocks()) {
+				if (!blockProblems.isValid())
+					continue;
+
+				for (SpellProblem problem : blockProblems.problems) {
+					if (problem.isValid() && problem.isError())
+						errors.add(new at.crowdware.bookdesigner.util.Range(problem.getFromPos(), problem.getToPos()));
+				}
+			}
+		}
+		overviewRulerLayer.setMarkers(errors);
+	}
+
+	private List<SpellBlockProblems> check(Task<?> task, Node astRoot, boolean updatePeriodically, int[] visibleRange) throws IOException {
 		// find nodes that should be checked
 		ArrayList<Node> nodesToCheck = new ArrayList<>();
 		NodeVisitor visitor = new NodeVisitor(Collections.emptyList()) {
@@ -271,7 +378,27 @@ public class SpellChecker
 		languageTool.initialize();
 
 //		long startTime = System.currentTimeMillis();
-		ArrayList<SpellBlockProblems> spellProblems = new ArrayList<>();
+
+		// build annotated texts in this thread (addons are not thread-safe)
+		int nodeCount = nodesToCheck.size();
+		AnnotatedText[] annotatedTexts = new AnnotatedText[nodeCount];
+		for (int i = 0; i < nodeCount; i++)
+			annotatedTexts[i] = annotatedNodeText(nodesToCheck.get(i));
+
+		// results in document order (null if block has no problems or is not yet checked)
+		SpellBlockProblems[] results = new SpellBlockProblems[nodeCount];
+
+		// check visible blocks first
+		int[] startOffsets = new int[nodeCount];
+		int[] endOffsets = new int[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			startOffsets[i] = nodesToCheck.get(i).getStartOffset();
+			endOffsets[i] = nodesToCheck.get(i).getEndOffset();
+		}
+		CheckQueue checkQueue = new CheckQueue(startOffsets, endOffsets);
+		if (visibleRange != null)
+			checkQueue.setVisibleRange(visibleRange[0], visibleRange[1]);
+		this.checkQueue = checkQueue;
 
 		// start timer to update overlays periodically during a lengthy check (on initial run)
 		// using FxTimer instead of Timeline because FxTimer makes sure
@@ -280,48 +407,130 @@ public class SpellChecker
 		// see http://tomasmikula.github.io/blog/2014/06/04/timers-in-javafx-and-reactfx.html
 		Timer timer = updatePeriodically
 			? FxTimer.runPeriodically(Duration.ofMillis(350), () -> {
-				ArrayList<SpellBlockProblems> spellProblems2;
-				synchronized (spellProblems) {
-					spellProblems2 = new ArrayList<>(spellProblems);
-				}
-				checkFinished(Try.success(spellProblems2));
+				checkFinished(Try.success(collectResults(results)));
 			}) : null;
 
-		// check spelling of nodes
-		try {
-			for (Node node : nodesToCheck) {
-				if (!editor.isVisible()) {
-					task.cancel(false);
-					return null;
+		// check spelling of nodes in parallel
+		// (each worker takes the next node from the queue until all nodes are checked)
+		AtomicBoolean cancelled = new AtomicBoolean();
+		Callable<Void> worker = () -> {
+			int i;
+			while (!cancelled.get() && (i = checkQueue.next()) >= 0) {
+				if (!editor.isVisible() || task.isCancelled()) {
+					cancelled.set(true);
+					break;
 				}
 
-				AnnotatedText annotatedText = annotatedNodeText(node);
 				List<RuleMatch> ruleMatches;
 				try {
-					ruleMatches = languageTool.check(annotatedText);
+					ruleMatches = languageTool.check(annotatedTexts[i]);
 				} catch (IllegalStateException ex) {
-					task.cancel(false);
-					return null; // user turned spell checking off
+					cancelled.set(true);
+					break; // user turned spell checking off
+				} catch (IOException ex) {
+					cancelled.set(true); // stop other workers
+					throw ex;
 				}
 
 				if (!ruleMatches.isEmpty()) {
+					Node node = nodesToCheck.get(i);
 					SpellBlockProblems problem = new SpellBlockProblems(node.getStartOffset(), node.getEndOffset(), ruleMatches);
-					synchronized (spellProblems) {
-						spellProblems.add(problem);
+					synchronized (results) {
+						results[i] = problem;
 					}
 				}
 			}
+			return null;
+		};
+
+		try {
+			int threadCount = Math.min(GlobalLanguageTool.getThreadCount(), nodeCount);
+			ArrayList<Future<Void>> futures = new ArrayList<>(threadCount - 1);
+			for (int i = 1; i < threadCount; i++)
+				futures.add(getWorkerExecutor().submit(worker));
+
+			// this thread is also a worker
+			try {
+				worker.call();
+			} catch (IOException ex) {
+				throw ex;
+			} catch (Exception ex) {
+				throw new RuntimeException(ex);
+			}
+
+			// wait for other workers
+			for (Future<Void> future : futures) {
+				try {
+					future.get();
+				} catch (InterruptedException ex) {
+					cancelled.set(true);
+				} catch (ExecutionException ex) {
+					cancelled.set(true);
+					if (ex.getCause() instanceof IOException)
+						throw (IOException) ex.getCause();
+					throw new RuntimeException(ex.getCause());
+				}
+			}
 		} finally {
+			this.checkQueue = null;
 			if (timer != null)
 				timer.stop();
 		}
 
+		if (cancelled.get()) {
+			task.cancel(false);
+			return null;
+		}
+
 //		long endTime = System.currentTimeMillis();
 //		System.out.printf("%,20d millis\n", endTime - startTime);
 
+		return collectResults(results);
+	}
+
+	/**
+	 * Returns the text range of the visible paragraphs (or null).
+	 */
+	private int[] getVisibleRange() {
+		try {
+			if (textArea.getVisibleParagraphs().isEmpty())
+				return null;
+
+			int firstVisible = textArea.firstVisibleParToAllParIndex();
+			int lastVisible = textArea.lastVisibleParToAllParIndex();
+			return new int[] {
+				textArea.getAbsolutePosition(firstVisible, 0),
+				textArea.getAbsolutePosition(lastVisible, textArea.getParagraphLength(lastVisible)),
+			};
+		} catch (AssertionError | IllegalArgumentException e) {
+			// may be thrown in textArea.visibleParToAllParIndex()
+			// --> ignore
+			return null;
+		}
+	}
+
+	private static List<SpellBlockProblems> collectResults(SpellBlockProblems[] results) {
+		ArrayList<SpellBlockProblems> spellProblems = new ArrayList<>();
+		synchronized (results) {
+			for (SpellBlockProblems blockProblems : results) {
+				if (blockProblems != null)
+					spellProblems.add(blockProblems);
+			}
+		}
 		return spellProblems;
 	}
 
+	private static ExecutorService getWorkerExecutor() {
+		if (workerExecutor == null) {
+			workerExecutor = Executors.newCachedThreadPool(runnable -> {
+				Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+				thread.setDaemon(true); // allow quitting app without shutting down executor
+				return thread;
+			});
+		}
+		return workerExecutor;
+	}
+
 	private AnnotatedText annotatedNodeText(Node node) {
 		AnnotatedTextBuilder builder = new AnnotatedTextBuilder();
 		NodeVisitor visitor = new NodeVisitor(Collections.emptyList()) {
@@ -393,12 +602,7 @@ public class SpellChecker
 		if (spellProblems == null)
 			return;
 
-		int position = e.getPosition();
-		int inserted = e.getInserted().length();
-		int removed = e.getRemoved().length();
-
-		for (SpellBlockProblems blockProblems : spellProblems)
-			blockProblems.updateOffsets(position, inserted, removed);
+		spellProblems.updateOffsets(e.getPosition(), e.getInserted().length(), e.getRemoved().length());
 	}
 
 	//---- context menu -------------------------------------------------------
@@ -655,47 +859,17 @@ public class SpellChecker
 	}
 
 	private List<SpellProblem> findProblemsAt(int index) {
-		if (index < 0 || spellProblems == null || spellProblems.isEmpty())
+		if (spellProblems == null)
 			return Collections.emptyList();
 
-		ArrayList<SpellProblem> result = new ArrayList<>();
-		for (SpellBlockProblems blockProblems : spellProblems) {
-			if (!blockProblems.contains(index))
-				continue;
-
-			for (SpellProblem problem : blockProblems.problems) {
-				if (problem.contains(index))
-					result.add(problem);
-			}
-		}
-		return result;
+		return spellProblems.getProblemsAt(index);
 	}
 
 	private SpellProblem findNextProblemAt(int index) {
-		for (SpellBlockProblems blockProblems : spellProblems) {
-			if (index >= blockProblems.getToPos())
-				continue; // index is after block
-
-			for (SpellProblem problem : blockProblems.problems) {
-				if (index < problem.getToPos())
-					return problem;
-			}
-		}
-		return null;
+		return spellProblems.findNextProblemAt(index);
 	}
 
 	private SpellProblem findPreviousProblemAt(int index) {
-		for (int i = spellProblems.size() - 1; i >= 0; i--) {
-			SpellBlockProblems blockProblems = spellProblems.get(i);
-			if (index <= blockProblems.getFromPos())
-				continue; // index is before block
-
-			for (int j = blockProblems.problems.size() - 1; j >= 0; j--) {
-				SpellProblem problem = blockProblems.problems.get(j);
-				if (index > problem.getFromPos())
-					return problem;
-			}
-		}
-		return null;
+		return spellProblems.findPreviousProblemAt(index);
 	}
 }
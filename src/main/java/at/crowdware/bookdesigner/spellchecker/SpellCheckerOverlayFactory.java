@@ -27,147 +27,121 @@
 
 package at.crowdware.bookdesigner.spellchecker;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.function.Supplier;
-import javafx.geometry.Insets;
 import javafx.geometry.Rectangle2D;
-import javafx.scene.Node;
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
-import javafx.scene.shape.LineTo;
-import javafx.scene.shape.MoveTo;
-import javafx.scene.shape.Path;
-import javafx.scene.shape.PathElement;
 import org.fxmisc.richtext.GenericStyledArea;
 import at.crowdware.bookdesigner.editor.ParagraphOverlayGraphicFactory.OverlayFactory;
-import at.crowdware.bookdesigner.util.Range;
 
 /**
  * Highlights spelling problems
  *
+ * Problems are painted into the paragraph canvas.
+ * Wavy lines are painted using a cached polyline (stamp) that is reused for all problems.
+ *
  * @author Karl Tauber
  */
 class SpellCheckerOverlayFactory
 	extends OverlayFactory
 {
-	private final Supplier<List<SpellBlockProblems>> spellProblemsSupplier;
+	private final Supplier<SpellProblems> spellProblemsSupplier;
 	private final boolean wavyLines = true;
 
-	SpellCheckerOverlayFactory(Supplier<List<SpellBlockProblems>> spellProblemsSupplier) {
+	SpellCheckerOverlayFactory(Supplier<SpellProblems> spellProblemsSupplier) {
 		this.spellProblemsSupplier = spellProblemsSupplier;
 	}
 
 	@Override
-	public List<Node> createOverlayNodes(int paragraphIndex) {
-		List<SpellBlockProblems> spellProblems = this.spellProblemsSupplier.get();
+	public boolean isPainting() {
+		return true;
+	}
+
+	@Override
+	public void paintOverlay(int paragraphIndex, GraphicsContext gc) {
+		SpellProblems spellProblems = this.spellProblemsSupplier.get();
 		if (spellProblems == null || spellProblems.isEmpty())
-			return Collections.emptyList();
+			return;
 
 		GenericStyledArea<?, ?, ?> textArea = getTextArea();
 		int parStart = textArea.position(paragraphIndex, 0).toOffset();
 		int parLength = textArea.getParagraph(paragraphIndex).length() + 1;
 		int parEnd = parStart + parLength;
 
-		ArrayList<Node> nodes = new ArrayList<>();
-		for (SpellBlockProblems blockProblems : spellProblems) {
-			if (!blockProblems.isValid() || blockProblems.getFromPos() >= parEnd || blockProblems.getToPos() < parStart)
-				continue; // not in this line
-
-			for (SpellProblem problem : blockProblems.problems) {
-				if (!problem.isValid() || problem.getFromPos() >= parEnd || problem.getToPos() < parStart)
-					continue; // not in this line
-
-				int start = Math.max(problem.getFromPos() - parStart, 0);
-				int end = Math.min(problem.getToPos() - parStart, parLength);
-				boolean spellError = problem.isError();
-
-				Path path = new Path();
-				if (wavyLines) {
-					path.setStroke(spellError ? Color.RED : Color.ORANGE);
-					path.setStrokeWidth(1);
-					path.setOpacity(0.7);
-				} else {
-					path.setFill(spellError ? Color.RED : Color.ORANGE);
-					path.setStrokeWidth(0);
-					path.setOpacity(0.3);
-				}
-				path.setUserData(new Range(start, end));
-				nodes.add(path);
-			}
-		}
-
-		return nodes;
-	}
-
-	@Override
-	public void layoutOverlayNodes(int paragraphIndex, List<Node> nodes) {
-		Insets insets = getInsets();
-		double leftInsets = insets.getLeft();
-		double topInsets = insets.getTop();
+		List<SpellProblem> problems = spellProblems.getProblems(parStart, parEnd - 1);
+		if (problems.isEmpty())
+			return;
 
-		for (Node node : nodes) {
-			node.setLayoutX(leftInsets);
-			node.setLayoutY(topInsets);
+		if (wavyLines) {
+			gc.setLineWidth(1);
+			gc.setGlobalAlpha(0.7);
+		} else
+			gc.setGlobalAlpha(0.3);
 
-			Range range = (Range) node.getUserData();
+		for (SpellProblem problem : problems) {
+			int start = Math.max(problem.getFromPos() - parStart, 0);
+			int end = Math.min(problem.getToPos() - parStart, parLength);
+			Color color = problem.isError() ? Color.RED : Color.ORANGE;
 
+			List<Rectangle2D> boundsList = getAllBounds(start, end);
 			if (wavyLines) {
-				List<Rectangle2D> boundsList = getAllBounds(range.start, range.end);
-				List<PathElement> wavyLinesShape = wavyLines(boundsList);
-				((Path)node).getElements().setAll(wavyLinesShape);
+				gc.setStroke(color);
+				for (Rectangle2D bounds : boundsList)
+					paintWavyLine(gc, bounds);
 			} else {
-				PathElement[] shape = getShape(range.start, range.end);
-				((Path)node).getElements().setAll(shape);
+				gc.setFill(color);
+				for (Rectangle2D bounds : boundsList)
+					gc.fillRect(bounds.getMinX(), bounds.getMinY(), bounds.getWidth(), bounds.getHeight());
 			}
 		}
 	}
 
-	private List<PathElement> wavyLines(List<Rectangle2D> boundsList) {
-		if (boundsList.size() == 1)
-			return wavyLines(boundsList.get(0));
-
-		ArrayList<PathElement> elements = new ArrayList<>();
-		for (Rectangle2D bounds : boundsList)
-			elements.addAll(wavyLines(bounds));
-		return elements;
-	}
+	private void paintWavyLine(GraphicsContext gc, Rectangle2D bounds) {
+		int pointCount = wavyPointCount(bounds.getWidth());
+		if (pointCount < 2)
+			return;
 
-	private List<PathElement> wavyLines(Rectangle2D bounds) {
 		double x = bounds.getMinX();
 		double y = bounds.getMaxY() - 2;
-		double x2 = bounds.getMaxX();
-		int inc = 2;
-
-		ArrayList<PathElement> elements = new ArrayList<>();
-		elements.add(new MoveTo(x, y));
-		for (int i = 0; i < 10000; i++) {
-			// bottom horizontal
-			x += 1;
-			if (x >= x2)
-				break;
-			elements.add(new LineTo(x, y));
-
-			// bottom to top
-			x += inc;
-			y -= inc;
-			if (x >= x2)
-				break;
-			elements.add(new LineTo(x, y));
-
-			// top horizontal
-			x += 1;
-			if (x >= x2)
-				break;
-			elements.add(new LineTo(x, y));
-
-			// top to bottom
-			x += inc;
-			y += inc;
-			if (x >= x2)
-				break;
-			elements.add(new LineTo(x, y));
+		gc.translate(x, y);
+		gc.strokePolyline(wavyXPoints, wavyYPoints, pointCount);
+		gc.translate(-x, -y);
+	}
+
+	//---- wavy line stamp ----------------------------------------------------
+
+	// polyline of a wavy line starting at 0,0 (grows on demand; only used on FX thread)
+	private static double[] wavyXPoints = new double[0];
+	private static double[] wavyYPoints = new double[0];
+
+	/**
+	 * Returns the number of wavy line stamp points that are left of the given width.
+	 */
+	private static int wavyPointCount(double width) {
+		int length = wavyXPoints.length;
+		if (length == 0 || wavyXPoints[length - 1] < width) {
+			// each period (6 pixels) consists of bottom horizontal, bottom to top,
+			// top horizontal and top to bottom lines
+			int periods = Math.max((int) (width / 6) + 2, length / 4 * 2);
+			double[] xPoints = new double[periods * 4];
+			double[] yPoints = new double[periods * 4];
+			for (int i = 0; i < periods; i++) {
+				int x = i * 6;
+				int j = i * 4;
+				xPoints[j]     = x;
+				xPoints[j + 1] = x + 1;
+				xPoints[j + 2] = x + 3;
+				xPoints[j + 3] = x + 4;
+				yPoints[j + 2] = -2;
+				yPoints[j + 3] = -2;
+			}
+			wavyXPoints = xPoints;
+			wavyYPoints = yPoints;
 		}
-		return elements;
+
+		int index = Arrays.binarySearch(wavyXPoints, width);
+		return (index >= 0) ? index : -index - 1;
 	}
 }
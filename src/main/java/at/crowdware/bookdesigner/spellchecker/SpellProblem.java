@@ -39,18 +39,27 @@ import org.languagetool.rules.spelling.SpellingCheckRule;
  * which keeps existing spell range highlights in place while the user types.
  * Spell checking is done deferred and in a background thread.
  *
+ * Offsets are relative to the block anchor.
+ *
  * @author Karl Tauber
  */
 class SpellProblem
 	extends SpellRange
 {
+	private final SpellBlockProblems block;
 	private final RuleMatch ruleMatch;
 
-	SpellProblem(int offset, RuleMatch ruleMatch) {
-		super(offset + ruleMatch.getFromPos(), offset + ruleMatch.getToPos());
+	SpellProblem(SpellBlockProblems block, RuleMatch ruleMatch) {
+		super(ruleMatch.getFromPos(), ruleMatch.getToPos());
+		this.block = block;
 		this.ruleMatch = ruleMatch;
 	}
 
+	@Override
+	int getAnchor() {
+		return block.getAnchor();
+	}
+
 	RuleMatch getRuleMatch() {
 		return ruleMatch;
 	}
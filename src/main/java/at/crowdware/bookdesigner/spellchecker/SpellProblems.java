@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2018 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.spellchecker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Spell checker problems of a document.
+ *
+ * Blocks are sorted by offset and do not overlap, which allows
+ * binary search to find the blocks of a paragraph or at a position.
+ * Problems within a block are sorted by offset.
+ *
+ * On text changes, only blocks that intersect the changed area are updated.
+ * Following blocks are moved lazily using a Fenwick tree (binary indexed tree)
+ * of offset deltas, which makes an edit O(log n) instead of O(all problems).
+ *
+ * @author Karl Tauber
+ */
+class SpellProblems
+{
+	private final List<SpellBlockProblems> blocks;
+
+	/** Fenwick tree of block offset deltas (1-based). */
+	private final int[] deltaTree;
+
+	SpellProblems(List<SpellBlockProblems> blocks) {
+		this.blocks = blocks;
+		this.deltaTree = new int[blocks.size() + 1];
+
+		int index = 0;
+		for (SpellBlockProblems blockProblems : blocks)
+			blockProblems.setOwner(this, index++);
+	}
+
+	List<SpellBlockProblems> getBlocks() {
+		return blocks;
+	}
+
+	boolean isEmpty() {
+		return blocks.isEmpty();
+	}
+
+	void updateOffsets(int position, int inserted, int removed) {
+		// blocks before first are before the changed area and not affected,
+		// blocks starting at moveFrom (or later) are after the changed area and only moved
+		int first = firstBlockEndingAtOrAfter(position);
+		int moveFrom = firstBlockStartingAtOrAfter(position + removed);
+
+		// update blocks that intersect the changed area
+		for (int i = first; i < moveFrom; i++)
+			blocks.get(i).updateOffsets(position, inserted, removed);
+
+		// move following blocks
+		int diff = inserted - removed;
+		if (diff != 0) {
+			for (int i = moveFrom + 1; i < deltaTree.length; i += i & -i)
+				deltaTree[i] += diff;
+		}
+	}
+
+	/**
+	 * Returns the pending offset delta of the block at the given index.
+	 */
+	int getDelta(int index) {
+		int delta = 0;
+		for (int i = index + 1; i > 0; i -= i & -i)
+			delta += deltaTree[i];
+		return delta;
+	}
+
+	/**
+	 * Returns valid problems that intersect the given range (e.g. a paragraph).
+	 * Same as for {@link SpellRange#contains(int)}, toPos is inclusive.
+	 */
+	List<SpellProblem> getProblems(int fromPos, int toPos) {
+		ArrayList<SpellProblem> result = new ArrayList<>();
+		for (int i = firstBlockEndingAtOrAfter(fromPos); i < blocks.size(); i++) {
+			SpellBlockProblems blockProblems = blocks.get(i);
+			if (blockProblems.getFromPos() > toPos)
+				break; // block and all following blocks are after range
+			if (!blockProblems.isValid())
+				continue;
+
+			for (SpellProblem problem : blockProblems.problems) {
+				if (problem.getFromPos() > toPos)
+					break;
+				if (problem.isValid() && problem.getToPos() >= fromPos)
+					result.add(problem);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns valid problems that contain the given index.
+	 */
+	List<SpellProblem> getProblemsAt(int index) {
+		if (index < 0 || blocks.isEmpty())
+			return Collections.emptyList();
+
+		return getProblems(index, index);
+	}
+
+	/**
+	 * Returns the first valid problem that ends after the given index.
+	 */
+	SpellProblem findNextProblemAt(int index) {
+		for (int i = firstBlockEndingAtOrAfter(index + 1); i < blocks.size(); i++) {
+			SpellBlockProblems blockProblems = blocks.get(i);
+			if (!blockProblems.isValid())
+				continue;
+
+			for (SpellProblem problem : blockProblems.problems) {
+				if (problem.isValid() && index < problem.getToPos())
+					return problem;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the last valid problem that starts before the given index.
+	 */
+	SpellProblem findPreviousProblemAt(int index) {
+		for (int i = firstBlockStartingAtOrAfter(index) - 1; i >= 0; i--) {
+			SpellBlockProblems blockProblems = blocks.get(i);
+			if (!blockProblems.isValid())
+				continue;
+
+			List<SpellProblem> problems = blockProblems.problems;
+			for (int j = problems.size() - 1; j >= 0; j--) {
+				SpellProblem problem = problems.get(j);
+				if (problem.isValid() && index > problem.getFromPos())
+					return problem;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Binary search for the first block with toPos >= pos.
+	 */
+	private int firstBlockEndingAtOrAfter(int pos) {
+		int low = 0;
+		int high = blocks.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (blocks.get(mid).getToPos() < pos)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Binary search for the first block with fromPos >= pos.
+	 */
+	private int firstBlockStartingAtOrAfter(int pos) {
+		int low = 0;
+		int high = blocks.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (blocks.get(mid).getFromPos() < pos)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+}
@@ -32,6 +32,9 @@ package at.crowdware.bookdesigner.spellchecker;
  * which keeps existing spell range highlights in place while the user types.
  * Spell checking is done deferred and in a background thread.
  *
+ * fromPos and toPos are relative to an anchor (see {@link #getAnchor()}),
+ * which allows moving many ranges at once without touching them.
+ *
  * @author Karl Tauber
  */
 class SpellRange
@@ -45,16 +48,24 @@ class SpellRange
 		this.toPos = toPos;
 	}
 
+	/**
+	 * Returns the offset that fromPos and toPos are relative to.
+	 */
+	int getAnchor() {
+		return 0;
+	}
+
 	final int getFromPos() {
-		return fromPos;
+		return getAnchor() + fromPos;
 	}
 
 	final int getToPos() {
-		return toPos;
+		return getAnchor() + toPos;
 	}
 
 	final boolean contains(int index) {
-		return fromPos <= index && index <= toPos;
+		int anchor = getAnchor();
+		return anchor + fromPos <= index && index <= anchor + toPos;
 	}
 
 	final boolean isValid() {
@@ -62,6 +73,13 @@ class SpellRange
 	}
 
 	void updateOffsets(int position, int inserted, int removed) {
+		updateRelativeOffsets(position - getAnchor(), inserted, removed);
+	}
+
+	/**
+	 * Same as {@link #updateOffsets(int, int, int)}, but position is relative to the anchor.
+	 */
+	final void updateRelativeOffsets(int position, int inserted, int removed) {
 		if (position > toPos)
 			return; // changed area is after this range
 
@@ -91,7 +109,9 @@ class SpellRange
 			} else {
 				// changed area fully replaces the position
 				// --> make position invalid
+				//     (and move it to the change to keep ranges sorted)
 				valid = false;
+				fromPos = toPos = position;
 			}
 		}
 	}
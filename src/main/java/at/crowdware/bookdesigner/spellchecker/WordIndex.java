@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2018 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.spellchecker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Inverted index: (lower case) word --> keys whose toString() contain the word.
+ *
+ * Keys are held strongly. Keys that are no longer cached (evicted) are
+ * removed from time to time (when the number of keys has doubled since
+ * the last pruning), using the given predicate.
+ *
+ * @author Karl Tauber
+ */
+class WordIndex
+{
+	private static final int MIN_PRUNE_THRESHOLD = 1000;
+
+	private final Predicate<Object> isCached;
+
+	// guarded by this
+	private final Map<String, Set<Object>> index = new HashMap<>();
+	private final Set<Object> keys = new HashSet<>();
+	private int pruneThreshold = MIN_PRUNE_THRESHOLD;
+
+	/**
+	 * @param isCached returns whether a key is still cached
+	 */
+	WordIndex(Predicate<Object> isCached) {
+		this.isCached = isCached;
+	}
+
+	synchronized void add(Object key) {
+		// an equal key is already indexed (e.g. re-cached after eviction)
+		// --> nothing to do because it is equal and contains the same words
+		if (!keys.add(key))
+			return;
+
+		for (String word : splitWords(key.toString()))
+			index.computeIfAbsent(word, w -> new HashSet<>()).add(key);
+
+		// remove evicted keys from time to time
+		if (keys.size() > pruneThreshold) {
+			prune();
+			pruneThreshold = Math.max(keys.size() * 2, MIN_PRUNE_THRESHOLD);
+		}
+	}
+
+	/**
+	 * Removes and returns keys whose text contains the given word (ignoring case).
+	 * Returns null if the word contains no letters or digits.
+	 */
+	synchronized List<Object> remove(String word) {
+		// use longest word of given word (which may contain e.g. a hyphen)
+		String longestWord = null;
+		for (String w : splitWords(word)) {
+			if (longestWord == null || w.length() > longestWord.length())
+				longestWord = w;
+		}
+		if (longestWord == null)
+			return null;
+
+		List<Object> result = new ArrayList<>();
+		Set<Object> wordKeys = index.get(longestWord);
+		if (wordKeys == null)
+			return result;
+
+		for (Object key : wordKeys) {
+			if (StringUtils.containsIgnoreCase(key.toString(), word))
+				result.add(key);
+		}
+
+		for (Object key : result)
+			removeKey(key);
+		return result;
+	}
+
+	/**
+	 * Removes keys that are no longer cached.
+	 */
+	synchronized void prune() {
+		List<Object> evicted = new ArrayList<>();
+		for (Object key : keys) {
+			if (!isCached.test(key))
+				evicted.add(key);
+		}
+		for (Object key : evicted)
+			removeKey(key);
+	}
+
+	private void removeKey(Object key) {
+		keys.remove(key);
+		for (String word : splitWords(key.toString())) {
+			Set<Object> wordKeys = index.get(word);
+			if (wordKeys != null && wordKeys.remove(key) && wordKeys.isEmpty())
+				index.remove(word);
+		}
+	}
+
+	synchronized void clear() {
+		index.clear();
+		keys.clear();
+		pruneThreshold = MIN_PRUNE_THRESHOLD;
+	}
+
+	/**
+	 * Returns the number of indexed words.
+	 */
+	synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * Returns the number of indexed keys.
+	 */
+	synchronized int getKeyCount() {
+		return keys.size();
+	}
+
+	/**
+	 * Splits the given text into lower case words (letters and digits).
+	 */
+	static List<String> splitWords(String text) {
+		ArrayList<String> words = new ArrayList<>();
+		int length = text.length();
+		int start = -1;
+		for (int i = 0; i <= length; i++) {
+			boolean wordChar = (i < length) && Character.isLetterOrDigit(text.charAt(i));
+			if (wordChar && start < 0)
+				start = i;
+			else if (!wordChar && start >= 0) {
+				words.add(text.substring(start, i).toLowerCase());
+				start = -1;
+			}
+		}
+		return words;
+	}
+}
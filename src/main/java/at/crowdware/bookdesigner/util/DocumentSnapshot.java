@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2015 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.util;
+
+import org.commonmark.parser.IncludeSourceSpans;
+import org.commonmark.parser.Parser;
+import at.crowdware.bookdesigner.options.MarkdownExtensions;
+import com.vladsch.flexmark.util.ast.Node;
+
+/**
+ * Immutable snapshot of a markdown document at a specific text version.
+ *
+ * Contains the text and the flexmark-java AST, which are produced by the editor.
+ * Derived views (commonmark-java AST, source positions and line index)
+ * are computed lazily on first use and are shared by all consumers
+ * (preview, spell checker, etc).
+ *
+ * The flexmark-java AST is never modified after publishing
+ * (incremental parsing copies reused nodes into the AST of the next snapshot),
+ * so it can be used in background threads even if the snapshot is outdated.
+ *
+ * @author Karl Tauber
+ */
+public class DocumentSnapshot
+{
+	private final int version;
+	private final String text;
+	private final Node flexmarkAST;
+
+	// lazily computed views
+	private org.commonmark.node.Node commonmarkAST;
+	private CommonmarkSourcePositions commonmarkSourcePositions;
+	private LineIndex lineIndex;
+
+	public DocumentSnapshot(int version, String text, Node flexmarkAST) {
+		this.version = version;
+		this.text = text;
+		this.flexmarkAST = flexmarkAST;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Returns the flexmark-java AST or null if the text is not markdown.
+	 */
+	public Node getFlexmarkAST() {
+		return flexmarkAST;
+	}
+
+	/**
+	 * Returns the commonmark-java AST (parsed on first invocation).
+	 */
+	public synchronized org.commonmark.node.Node getCommonmarkAST() {
+		if (commonmarkAST == null) {
+			Parser parser = Parser.builder()
+				.extensions(MarkdownExtensions.getCommonmarkExtensions())
+				.includeSourceSpans(IncludeSourceSpans.BLOCKS_AND_INLINES)
+				.build();
+			commonmarkAST = parser.parse(text);
+		}
+		return commonmarkAST;
+	}
+
+	/**
+	 * Returns the source positions of the commonmark-java AST.
+	 */
+	public synchronized CommonmarkSourcePositions getCommonmarkSourcePositions() {
+		if (commonmarkSourcePositions == null)
+			commonmarkSourcePositions = new CommonmarkSourcePositions(text, getCommonmarkAST());
+		return commonmarkSourcePositions;
+	}
+
+	//---- line index ---------------------------------------------------------
+
+	public int getLineCount() {
+		return getLineIndex().getLineCount();
+	}
+
+	public int getLineStartOffset(int line) {
+		return getLineIndex().getLineStartOffset(line);
+	}
+
+	/**
+	 * Returns the (zero-based) line that contains the given offset.
+	 */
+	public int getLineOfOffset(int offset) {
+		return getLineIndex().getLineOfOffset(offset);
+	}
+
+	public synchronized LineIndex getLineIndex() {
+		if (lineIndex == null)
+			lineIndex = new LineIndex(text);
+		return lineIndex;
+	}
+}
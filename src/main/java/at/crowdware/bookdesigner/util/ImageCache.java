@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2018 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import javafx.scene.image.Image;
+import at.crowdware.bookdesigner.options.Options;
+
+/**
+ * A least-recently-used cache for decoded images, bounded by the number of bytes
+ * needed for the decoded pixels (4 bytes per pixel).
+ *
+ * Each image is stored together with the modification time of its file.
+ * An image is invalid (and removed) if the file has been modified since.
+ *
+ * Thread-safe.
+ *
+ * @author Karl Tauber
+ */
+public class ImageCache
+{
+	private static final long MB = 1024 * 1024;
+
+	private static ImageCache sharedCache;
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long maxBytes;
+	private long bytes;
+
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+
+	/**
+	 * Returns the cache shared by all users of images (editor, dialogs, previews).
+	 * The size is specified in the options.
+	 */
+	public static synchronized ImageCache getShared() {
+		if (sharedCache == null) {
+			ImageCache cache = new ImageCache(Options.getImageCacheSize() * MB);
+			Options.imageCacheSizeProperty().addListener((ob, o, n) -> {
+				cache.setMaxBytes(n.longValue() * MB);
+			});
+			sharedCache = cache;
+		}
+		return sharedCache;
+	}
+
+	public ImageCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns the cached image for the given key, or null.
+	 * If the given lastModified differs from the one passed to put(),
+	 * the image is removed and null is returned.
+	 */
+	public synchronized Image get(String key, long lastModified) {
+		Entry entry = entries.get(key);
+		if (entry != null && entry.lastModified != lastModified) {
+			remove(key);
+			entry = null;
+		}
+
+		if (entry != null)
+			hitCount++;
+		else
+			missCount++;
+		return (entry != null) ? entry.image : null;
+	}
+
+	/**
+	 * Adds an image to the cache and evicts least-recently-used images
+	 * until the cache is within its size.
+	 * Images that are larger than the cache are not added.
+	 */
+	public synchronized void put(String key, Image image, long lastModified) {
+		remove(key);
+
+		long imageBytes = imageBytes(image);
+		if (imageBytes > maxBytes)
+			return;
+
+		entries.put(key, new Entry(image, imageBytes, lastModified));
+		bytes += imageBytes;
+		evict();
+	}
+
+	public synchronized void remove(String key) {
+		Entry entry = entries.remove(key);
+		if (entry != null)
+			bytes -= entry.bytes;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	private void evict() {
+		Iterator<Entry> it = entries.values().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			bytes -= it.next().bytes;
+			it.remove();
+			evictionCount++;
+		}
+	}
+
+	private static long imageBytes(Image image) {
+		return Math.max((long) image.getWidth() * (long) image.getHeight() * 4, 0);
+	}
+
+	public synchronized int getImageCount() { return entries.size(); }
+	public synchronized long getBytes() { return bytes; }
+	public synchronized long getMaxBytes() { return maxBytes; }
+	public synchronized long getHitCount() { return hitCount; }
+	public synchronized long getMissCount() { return missCount; }
+	public synchronized long getEvictionCount() { return evictionCount; }
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d images, %d of %d KB, %d hits, %d misses, %d evictions",
+			entries.size(), bytes / 1024, maxBytes / 1024, hitCount, missCount, evictionCount);
+	}
+
+	//---- class Entry --------------------------------------------------------
+
+	private static class Entry
+	{
+		final Image image;
+		final long bytes;
+		final long lastModified;
+
+		Entry(Image image, long bytes, long lastModified) {
+			this.image = image;
+			this.bytes = bytes;
+			this.lastModified = lastModified;
+		}
+	}
+}
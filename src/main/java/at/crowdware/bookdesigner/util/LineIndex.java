@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2015 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.util;
+
+import java.util.Arrays;
+
+/**
+ * Start offsets of all lines of a text, which allows
+ * offset to line lookups in O(log n).
+ *
+ * @author Karl Tauber
+ */
+public class LineIndex
+{
+	private final int[] lineStartOffsets;
+
+	public LineIndex(String text) {
+		int lineCount = 1;
+		for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1))
+			lineCount++;
+
+		int[] offsets = new int[lineCount];
+		int line = 1;
+		for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1))
+			offsets[line++] = i + 1;
+		lineStartOffsets = offsets;
+	}
+
+	public int getLineCount() {
+		return lineStartOffsets.length;
+	}
+
+	public int getLineStartOffset(int line) {
+		return lineStartOffsets[line];
+	}
+
+	/**
+	 * Returns the (zero-based) line that contains the given offset.
+	 */
+	public int getLineOfOffset(int offset) {
+		int index = Arrays.binarySearch(lineStartOffsets, offset);
+		return (index >= 0) ? index : -index - 2;
+	}
+}
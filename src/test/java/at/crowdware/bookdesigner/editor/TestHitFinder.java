@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2015 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.editor;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.Test;
+import at.crowdware.bookdesigner.util.Range;
+
+/**
+ * @author Karl Tauber
+ */
+public class TestHitFinder
+{
+	private static final String TEXT =
+		"# Heading aa\n" +
+		"\n" +
+		"Some text with aaa and AbA and abab.\n" +
+		"Another line: ab ab  aba\n" +
+		"\n" +
+		"- item aab\n" +
+		"- item baa\n";
+
+	private static final String[] INSERTS = {
+		"a", "b", "A", "ab", "aa", "ba", "\n", " ", "x", "aba\nab", "\n\n", "",
+	};
+
+	@Test
+	public void literal() {
+		randomEdits(new HitFinder("ab", true, false));
+		randomEdits(new HitFinder("aa", false, false));
+		randomEdits(new HitFinder("aba", true, false));
+		randomEdits(new HitFinder("a", false, false));
+	}
+
+	@Test
+	public void regex() {
+		randomEdits(new HitFinder("a+", true, true));
+		randomEdits(new HitFinder("a.*b", false, true));
+		randomEdits(new HitFinder("\\bab\\b", true, true));
+		randomEdits(new HitFinder("b*", true, true));
+		randomEdits(new HitFinder("^#.*", true, true));
+	}
+
+	@Test
+	public void notIncremental() {
+		assertFalse(new HitFinder("a\\nb", true, true).isIncremental());
+		assertFalse(new HitFinder("a\\s+b", true, true).isIncremental());
+		assertFalse(new HitFinder("a[^x]b", true, true).isIncremental());
+		assertFalse(new HitFinder("(?s)a.b", true, true).isIncremental());
+		assertFalse(new HitFinder("a$", true, true).isIncremental());
+		assertTrue(new HitFinder("a\\.b", true, true).isIncremental());
+		assertTrue(new HitFinder("(?i)a\\d+", true, true).isIncremental());
+		assertTrue(new HitFinder("a\nb", true, false).isIncremental());
+	}
+
+	@Test
+	public void replace() {
+		assertReplaced("(?i)aa|ab", new HitFinder("aa|ab", false, true), "x");
+		assertReplaced("(?i)(a+)", new HitFinder("(a+)", false, true), "[$1]");
+		assertReplaced("a(b)", new HitFinder("a(b)", true, true), "$1\\$");
+		assertReplaced("(?i)ab", new HitFinder("ab", false, false), "-");
+	}
+
+	private void assertReplaced(String expectedRegex, HitFinder finder, String replace) {
+		ArrayList<Range> hits = new ArrayList<>();
+		finder.findAll(TEXT, hits, Integer.MAX_VALUE);
+
+		// replace in chunks of 2 hits
+		StringBuilder buf = new StringBuilder();
+		buf.append(TEXT, 0, hits.get(0).start);
+		for (int i = 0; i < hits.size(); i += 2)
+			finder.appendReplaced(buf, TEXT, hits, i, Math.min(i + 2, hits.size()), replace);
+		buf.append(TEXT, hits.get(hits.size() - 1).end, TEXT.length());
+
+		assertEquals(TEXT.replaceAll(expectedRegex, replace), buf.toString());
+	}
+
+	private void randomEdits(HitFinder finder) {
+		Random random = new Random(42);
+		String text = TEXT;
+		ArrayList<Range> hits = new ArrayList<>();
+		finder.findAll(text, hits, Integer.MAX_VALUE);
+
+		for (int i = 0; i < 2000; i++) {
+			if (i % 50 == 0) {
+				text = TEXT;
+				hits.clear();
+				finder.findAll(text, hits, Integer.MAX_VALUE);
+			}
+
+			int position = random.nextInt(text.length() + 1);
+			int removedLength = random.nextInt(3) == 0 ? random.nextInt(Math.min(text.length() - position, 5) + 1) : 0;
+			String inserted = INSERTS[random.nextInt(INSERTS.length)];
+			text = text.substring(0, position) + inserted + text.substring(position + removedLength);
+
+			finder.update(hits, text, position, removedLength, inserted.length());
+
+			ArrayList<Range> expected = new ArrayList<>();
+			finder.findAll(text, expected, Integer.MAX_VALUE);
+			assertEquals(text, expected.toString(), hits.toString());
+		}
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2016 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.editor;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import com.vladsch.flexmark.ext.gfm.strikethrough.StrikethroughExtension;
+import com.vladsch.flexmark.ext.tables.TablesExtension;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.ast.Document;
+import com.vladsch.flexmark.util.ast.Node;
+import com.vladsch.flexmark.util.sequence.BasedSequence;
+
+/**
+ * @author Karl Tauber
+ */
+public class TestIncrementalParser
+{
+	private static final String TEXT =
+		"# Heading\n" +
+		"\n" +
+		"Some *emphasized* and **strong** text with a [link](http://example.com)\n" +
+		"and a second line with `code`.\n" +
+		"\n" +
+		"> block quote with ~~strike~~\n" +
+		"\n" +
+		"```java\n" +
+		"int i = 0;\n" +
+		"\n" +
+		"i++;\n" +
+		"```\n" +
+		"\n" +
+		"Setext heading\n" +
+		"--------------\n" +
+		"\n" +
+		"| a | b |\n" +
+		"|---|---|\n" +
+		"| 1 | 2 |\n" +
+		"\n" +
+		"***\n" +
+		"\n" +
+		"- item 1\n" +
+		"- item 2\n" +
+		"\n" +
+		"Last paragraph ![image](img.png)\n";
+
+	private static final String[] INSERTS = {
+		"x", "word ", "\n", "\n\n", "*", "**", "`", "# ", "> ", "- ", "1. ", "```\n", "---\n", "[", "]", "|", "    ", "<div>", "\n[ref]: http://x\n",
+	};
+
+	private final Parser parser = Parser.builder()
+		.extensions(Arrays.asList(StrikethroughExtension.create(), TablesExtension.create()))
+		.build();
+
+	private int incrementalCount;
+
+	@Test
+	public void typing() {
+		String text = TEXT;
+		Document document = (Document) parser.parse(text);
+
+		int pos = text.indexOf("second line");
+		for (char ch : "typed text".toCharArray()) {
+			IncrementalParser incrementalParser = new IncrementalParser();
+			incrementalParser.textChanged(pos, 0, 1);
+			text = text.substring(0, pos) + ch + text.substring(pos);
+			pos++;
+
+			assertNotNull(incrementalParser.parse(parser, document, text));
+			document = parse(incrementalParser, document, text);
+		}
+	}
+
+	@Test
+	public void randomEdits() {
+		Random random = new Random(42);
+		String text = TEXT;
+		Document document = (Document) parser.parse(text);
+
+		incrementalCount = 0;
+		for (int i = 0; i < 2000; i++) {
+			// restart with original text after some edits because
+			// edits may produce blocks that prevent incremental parsing
+			if (i % 4 == 0) {
+				text = TEXT;
+				document = (Document) parser.parse(text);
+			}
+
+			IncrementalParser incrementalParser = new IncrementalParser();
+
+			// apply one or more edits
+			int editCount = 1 + random.nextInt(3);
+			for (int j = 0; j < editCount; j++) {
+				int start = random.nextInt(text.length() + 1);
+				int end = Math.min(start + (random.nextBoolean() ? 0 : random.nextInt(10)), text.length());
+				String insert = random.nextBoolean() ? INSERTS[random.nextInt(INSERTS.length)] : "";
+				if (start == end && insert.isEmpty())
+					continue;
+
+				text = text.substring(0, start) + insert + text.substring(end);
+				incrementalParser.textChanged(start, end - start, insert.length());
+			}
+
+	
+			document = parse(incrementalParser, document, text);
+		}
+		assertTrue(incrementalCount > 500);
+	}
+
+	private Document parse(IncrementalParser incrementalParser, Document document, String text) {
+		Document expected = (Document) parser.parse(text);
+		IncrementalParser.Splice splice = incrementalParser.parse(parser, document, text);
+		if (splice == null)
+			return expected;
+
+		String oldDump = dump(document);
+		Document actual = splice.apply();
+		assertEquals(text, dump(expected), dump(actual));
+		assertEquals("old document modified", oldDump, dump(document));
+		assertSameBase(actual, actual.getChars().getBaseSequence());
+		incrementalCount++;
+		return actual;
+	}
+
+	/**
+	 * Checks that all nodes reference the base text of the document
+	 * (and not the texts of previous documents).
+	 */
+	private static void assertSameBase(Node node, BasedSequence base) {
+		assertSame(node.toAstString(false), base, node.getChars().getBaseSequence());
+		for (Node child = node.getFirstChild(); child != null; child = child.getNext())
+			assertSameBase(child, base);
+	}
+
+	private static String dump(Node node) {
+		StringBuilder buf = new StringBuilder();
+		dump(node, "", buf);
+		return buf.toString();
+	}
+
+	private static void dump(Node node, String indent, StringBuilder buf) {
+		buf.append(indent).append(node.toAstString(true))
+			.append(" \"").append(node.getChars()).append("\"\n");
+		for (Node child = node.getFirstChild(); child != null; child = child.getNext())
+			dump(child, indent + "  ", buf);
+	}
+}
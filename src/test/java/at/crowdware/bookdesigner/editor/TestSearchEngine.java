@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2015 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.editor;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+import at.crowdware.bookdesigner.util.Range;
+
+/**
+ * @author Karl Tauber
+ */
+public class TestSearchEngine
+{
+	// includes chars with special case folding (long s, Kelvin sign, dotted/dotless i, sharp s)
+	private static final String CHARS = "aAbBsS\u017fk\u212aiI\u0130\u0131\u00df\u00e4\u00c4 \n";
+
+	@Test
+	public void literal() {
+		Random random = new Random(42);
+		for (int i = 0; i < 2000; i++) {
+			String text = randomString(random, random.nextInt(100));
+			String find = randomString(random, 1 + random.nextInt(4));
+
+			assertSameHits(text, find, true);
+			assertSameHits(text, find, false);
+		}
+	}
+
+	@Test
+	public void literalEdges() {
+		assertSameHits("", "a", false);
+		assertSameHits("a", "a", false);
+		assertSameHits("abc", "abcd", false);
+		assertSameHits("xxABCxxabcxx", "abc", false);
+		assertSameHits("aaaa", "aa", false);
+
+		LiteralSearchEngine engine = new LiteralSearchEngine("", false);
+		assertEquals(0, engine.indexOfIgnoreCase("abc", -1));
+		assertEquals(3, engine.indexOfIgnoreCase("abc", 3));
+		assertEquals(-1, engine.indexOfIgnoreCase("abc", 4));
+	}
+
+	@Test
+	public void patternCache() {
+		assertSame(RegexSearchEngine.compile("a+b", true), RegexSearchEngine.compile("a+b", true));
+		assertNotSame(RegexSearchEngine.compile("a+b", true), RegexSearchEngine.compile("a+b", false));
+
+		RegexSearchEngine engine = new RegexSearchEngine(RegexSearchEngine.compile("a+b", false));
+		assertEquals("3-6", String.valueOf(engine.find("xx AAB ab", 0)));
+		assertEquals("7-9", String.valueOf(engine.copy().find("xx AAB ab", 6)));
+	}
+
+	private static void assertSameHits(String text, String find, boolean matchCase) {
+		LiteralSearchEngine engine = new LiteralSearchEngine(find, matchCase);
+		for (int fromIndex = 0; fromIndex <= text.length() + 1; fromIndex++) {
+			int expected = matchCase
+				? text.indexOf(find, fromIndex)
+				: StringUtils.indexOfIgnoreCase(text, find, fromIndex);
+			Range hit = engine.find(text, fromIndex);
+			assertEquals("'" + find + "' in '" + text + "' from " + fromIndex,
+				expected, (hit != null) ? hit.start : -1);
+		}
+	}
+
+	private static String randomString(Random random, int length) {
+		StringBuilder buf = new StringBuilder(length);
+		for (int i = 0; i < length; i++)
+			buf.append(CHARS.charAt(random.nextInt(CHARS.length())));
+		return buf.toString();
+	}
+}
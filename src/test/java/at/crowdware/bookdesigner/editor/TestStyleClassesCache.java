@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2016 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.editor;
+
+import static org.junit.Assert.*;
+import static at.crowdware.bookdesigner.editor.MarkdownSyntaxHighlighter.extraStyleBits;
+import static at.crowdware.bookdesigner.editor.MarkdownSyntaxHighlighter.toStyleBits;
+import static at.crowdware.bookdesigner.editor.MarkdownSyntaxHighlighter.toStyleClasses;
+
+import java.util.Arrays;
+import java.util.Collection;
+import org.junit.Test;
+import at.crowdware.bookdesigner.editor.MarkdownSyntaxHighlighter.StyleClass;
+
+/**
+ * @author Karl Tauber
+ */
+public class TestStyleClassesCache
+{
+	@Test
+	public void interned() {
+		long bits = (1L << StyleClass.h1.ordinal()) | (1L << StyleClass.em.ordinal());
+		Collection<String> styleClasses = toStyleClasses(bits);
+		assertTrue(styleClasses.containsAll(Arrays.asList("h1", "em")));
+		assertEquals(2, styleClasses.size());
+
+		long hits = MarkdownSyntaxHighlighter.getStyleClassesCacheHits();
+		assertSame(styleClasses, toStyleClasses(bits));
+		assertEquals(hits + 1, MarkdownSyntaxHighlighter.getStyleClassesCacheHits());
+	}
+
+	@Test
+	public void extraStyleClasses() {
+		long hitBits = extraStyleBits("test-hit");
+		long activeBits = extraStyleBits("test-hit-active");
+		assertNotEquals(0, hitBits);
+		assertNotEquals(hitBits, activeBits);
+		assertEquals(hitBits, extraStyleBits("test-hit"));
+
+		long bits = (1L << StyleClass.h1.ordinal()) | activeBits;
+		assertEquals(Arrays.asList("h1", "test-hit-active"), toStyleClasses(bits));
+		assertSame(toStyleClasses(bits), toStyleClasses(bits));
+	}
+
+	@Test
+	public void styleBits() {
+		long bits = (1L << StyleClass.strong.ordinal()) | extraStyleBits("test-hit");
+		assertEquals(bits, toStyleBits(toStyleClasses(bits)));
+		assertEquals(bits, toStyleBits(Arrays.asList("strong", "test-hit")));
+		assertEquals(0, toStyleBits(Arrays.asList()));
+	}
+}
@@ -28,31 +28,29 @@
 package at.crowdware.bookdesigner.editor;
 
 import static org.junit.Assert.*;
-import static at.crowdware.bookdesigner.editor.MarkdownSyntaxHighlighter.addStyledRange;
 
-import java.util.ArrayList;
 import org.junit.Before;
 import org.junit.Test;
 import at.crowdware.bookdesigner.editor.MarkdownSyntaxHighlighter.StyleClass;
-import at.crowdware.bookdesigner.editor.MarkdownSyntaxHighlighter.StyleRange;
+import at.crowdware.bookdesigner.editor.MarkdownSyntaxHighlighter.StyleRanges;
 
 /**
  * @author Karl Tauber
  */
 public class TestStyleRanges
 {
-	private ArrayList<StyleRange> styleRanges;
+	private StyleRanges styleRanges;
 
 	@Before
 	public void initialize() {
-		styleRanges = new ArrayList<>();
+		styleRanges = new StyleRanges();
 	}
 
 	@Test
 	public void single() {
 		// 012345678901234567890123456789
 		// 11111
-		addStyledRange(styleRanges, 0, 5, StyleClass.h1);
+		styleRanges.add(0, 5, StyleClass.h1);
 		assertStyleRanges(new R(0, 5, StyleClass.h1));
 	}
 
@@ -60,7 +58,7 @@ public class TestStyleRanges
 	public void single2() {
 		// 012345678901234567890123456789
 		//           1111111111
-		addStyledRange(styleRanges, 10, 15, StyleClass.h1);
+		styleRanges.add(10, 15, StyleClass.h1);
 		assertStyleRanges(new R(10, 15, StyleClass.h1));
 	}
 
@@ -69,8 +67,8 @@ public class TestStyleRanges
 		// 012345678901234567890123456789
 		// 11111
 		//           22222
-		addStyledRange(styleRanges, 0, 5, StyleClass.h1);
-		addStyledRange(styleRanges, 10, 15, StyleClass.h2);
+		styleRanges.add(0, 5, StyleClass.h1);
+		styleRanges.add(10, 15, StyleClass.h2);
 		assertStyleRanges(
 				new R(0, 5, StyleClass.h1),
 				new R(10, 15, StyleClass.h2));
@@ -82,9 +80,9 @@ public class TestStyleRanges
 		// 11111
 		//           22222
 		//                3333333333
-		addStyledRange(styleRanges, 0, 5, StyleClass.h1);
-		addStyledRange(styleRanges, 10, 15, StyleClass.h2);
-		addStyledRange(styleRanges, 15, 25, StyleClass.h3);
+		styleRanges.add(0, 5, StyleClass.h1);
+		styleRanges.add(10, 15, StyleClass.h2);
+		styleRanges.add(15, 25, StyleClass.h3);
 		assertStyleRanges(
 				new R(0, 5, StyleClass.h1),
 				new R(10, 15, StyleClass.h2),
@@ -96,8 +94,8 @@ public class TestStyleRanges
 		// 012345678901234567890123456789
 		//           1111111111
 		//                2222222222
-		addStyledRange(styleRanges, 10, 20, StyleClass.h1);
-		addStyledRange(styleRanges, 15, 25, StyleClass.h2);
+		styleRanges.add(10, 20, StyleClass.h1);
+		styleRanges.add(15, 25, StyleClass.h2);
 		assertStyleRanges(
 				new R(10, 15, StyleClass.h1),
 				new R(15, 20, StyleClass.h1, StyleClass.h2),
@@ -109,8 +107,8 @@ public class TestStyleRanges
 		// 012345678901234567890123456789
 		//           1111111111
 		//      2222222222
-		addStyledRange(styleRanges, 10, 20, StyleClass.h1);
-		addStyledRange(styleRanges, 5, 15, StyleClass.h2);
+		styleRanges.add(10, 20, StyleClass.h1);
+		styleRanges.add(5, 15, StyleClass.h2);
 		assertStyleRanges(
 				new R(5, 10, StyleClass.h2),
 				new R(10, 15, StyleClass.h1, StyleClass.h2),
@@ -122,8 +120,8 @@ public class TestStyleRanges
 		// 012345678901234567890123456789
 		//           1111111111
 		//      22222222222222222222
-		addStyledRange(styleRanges, 10, 20, StyleClass.h1);
-		addStyledRange(styleRanges, 5, 25, StyleClass.h2);
+		styleRanges.add(10, 20, StyleClass.h1);
+		styleRanges.add(5, 25, StyleClass.h2);
 		assertStyleRanges(
 				new R(5, 10, StyleClass.h2),
 				new R(10, 20, StyleClass.h1, StyleClass.h2),
@@ -135,8 +133,8 @@ public class TestStyleRanges
 		// 012345678901234567890123456789
 		//           1111111111
 		//              22222
-		addStyledRange(styleRanges, 10, 20, StyleClass.h1);
-		addStyledRange(styleRanges, 13, 18, StyleClass.h2);
+		styleRanges.add(10, 20, StyleClass.h1);
+		styleRanges.add(13, 18, StyleClass.h2);
 		assertStyleRanges(
 				new R(10, 13, StyleClass.h1),
 				new R(13, 18, StyleClass.h1, StyleClass.h2),
@@ -148,8 +146,8 @@ public class TestStyleRanges
 		// 012345678901234567890123456789
 		//           1111111111
 		//           22222222
-		addStyledRange(styleRanges, 10, 20, StyleClass.h1);
-		addStyledRange(styleRanges, 10, 18, StyleClass.h2);
+		styleRanges.add(10, 20, StyleClass.h1);
+		styleRanges.add(10, 18, StyleClass.h2);
 		assertStyleRanges(
 				new R(10, 18, StyleClass.h1, StyleClass.h2),
 				new R(18, 20, StyleClass.h1));
@@ -160,8 +158,8 @@ public class TestStyleRanges
 		// 012345678901234567890123456789
 		//           1111111111
 		//              2222222
-		addStyledRange(styleRanges, 10, 20, StyleClass.h1);
-		addStyledRange(styleRanges, 13, 20, StyleClass.h2);
+		styleRanges.add(10, 20, StyleClass.h1);
+		styleRanges.add(13, 20, StyleClass.h2);
 		assertStyleRanges(
 				new R(10, 13, StyleClass.h1),
 				new R(13, 20, StyleClass.h1, StyleClass.h2));
@@ -172,8 +170,8 @@ public class TestStyleRanges
 		// 012345678901234567890123456789
 		//           1111111111
 		//           2222222222
-		addStyledRange(styleRanges, 10, 20, StyleClass.h1);
-		addStyledRange(styleRanges, 10, 20, StyleClass.h2);
+		styleRanges.add(10, 20, StyleClass.h1);
+		styleRanges.add(10, 20, StyleClass.h2);
 		assertStyleRanges(
 				new R(10, 20, StyleClass.h1, StyleClass.h2));
 	}
@@ -184,9 +182,9 @@ public class TestStyleRanges
 		//      11111
 		//           222222
 		//         33333
-		addStyledRange(styleRanges, 5, 10, StyleClass.h1);
-		addStyledRange(styleRanges, 10, 15, StyleClass.h2);
-		addStyledRange(styleRanges, 8, 13, StyleClass.h3);
+		styleRanges.add(5, 10, StyleClass.h1);
+		styleRanges.add(10, 15, StyleClass.h2);
+		styleRanges.add(8, 13, StyleClass.h3);
 		assertStyleRanges(
 				new R(5, 8, StyleClass.h1),
 				new R(8, 10, StyleClass.h1, StyleClass.h3),
@@ -200,9 +198,9 @@ public class TestStyleRanges
 		//      11111
 		//                22222
 		//             33333
-		addStyledRange(styleRanges, 5, 10, StyleClass.h1);
-		addStyledRange(styleRanges, 15, 20, StyleClass.h2);
-		addStyledRange(styleRanges, 12, 17, StyleClass.h3);
+		styleRanges.add(5, 10, StyleClass.h1);
+		styleRanges.add(15, 20, StyleClass.h2);
+		styleRanges.add(12, 17, StyleClass.h3);
 		assertStyleRanges(
 				new R(5, 10, StyleClass.h1),
 				new R(12, 15, StyleClass.h3),
@@ -216,9 +214,9 @@ public class TestStyleRanges
 		//      11111
 		//                22222
 		//         3333333333
-		addStyledRange(styleRanges, 5, 10, StyleClass.h1);
-		addStyledRange(styleRanges, 15, 20, StyleClass.h2);
-		addStyledRange(styleRanges, 8, 18, StyleClass.h3);
+		styleRanges.add(5, 10, StyleClass.h1);
+		styleRanges.add(15, 20, StyleClass.h2);
+		styleRanges.add(8, 18, StyleClass.h3);
 		assertStyleRanges(
 				new R(5, 8, StyleClass.h1),
 				new R(8, 10, StyleClass.h1, StyleClass.h3),
@@ -233,9 +231,9 @@ public class TestStyleRanges
 		//      11111
 		//                22222
 		//   333333333333333
-		addStyledRange(styleRanges, 5, 10, StyleClass.h1);
-		addStyledRange(styleRanges, 15, 20, StyleClass.h2);
-		addStyledRange(styleRanges, 2, 17, StyleClass.h3);
+		styleRanges.add(5, 10, StyleClass.h1);
+		styleRanges.add(15, 20, StyleClass.h2);
+		styleRanges.add(2, 17, StyleClass.h3);
 		assertStyleRanges(
 				new R(2, 5, StyleClass.h3),
 				new R(5, 10, StyleClass.h1, StyleClass.h3),
@@ -250,9 +248,9 @@ public class TestStyleRanges
 		//      11111
 		//                22222
 		//           333
-		addStyledRange(styleRanges, 5, 10, StyleClass.h1);
-		addStyledRange(styleRanges, 15, 20, StyleClass.h2);
-		addStyledRange(styleRanges, 10, 13, StyleClass.h3);
+		styleRanges.add(5, 10, StyleClass.h1);
+		styleRanges.add(15, 20, StyleClass.h2);
+		styleRanges.add(10, 13, StyleClass.h3);
 		assertStyleRanges(
 				new R(5, 10, StyleClass.h1),
 				new R(10, 13, StyleClass.h3),
@@ -265,9 +263,9 @@ public class TestStyleRanges
 		//      11111
 		//                22222
 		//           33333
-		addStyledRange(styleRanges, 5, 10, StyleClass.h1);
-		addStyledRange(styleRanges, 15, 20, StyleClass.h2);
-		addStyledRange(styleRanges, 10, 15, StyleClass.h3);
+		styleRanges.add(5, 10, StyleClass.h1);
+		styleRanges.add(15, 20, StyleClass.h2);
+		styleRanges.add(10, 15, StyleClass.h3);
 		assertStyleRanges(
 				new R(5, 10, StyleClass.h1),
 				new R(10, 15, StyleClass.h3),
@@ -280,9 +278,9 @@ public class TestStyleRanges
 		//      11111
 		//                22222
 		// 333
-		addStyledRange(styleRanges, 5, 10, StyleClass.h1);
-		addStyledRange(styleRanges, 15, 20, StyleClass.h2);
-		addStyledRange(styleRanges, 0, 3, StyleClass.h3);
+		styleRanges.add(5, 10, StyleClass.h1);
+		styleRanges.add(15, 20, StyleClass.h2);
+		styleRanges.add(0, 3, StyleClass.h3);
 		assertStyleRanges(
 				new R(0, 3, StyleClass.h3),
 				new R(5, 10, StyleClass.h1),
@@ -295,9 +293,9 @@ public class TestStyleRanges
 		//      11111
 		//                22222
 		// 33333
-		addStyledRange(styleRanges, 5, 10, StyleClass.h1);
-		addStyledRange(styleRanges, 15, 20, StyleClass.h2);
-		addStyledRange(styleRanges, 0, 5, StyleClass.h3);
+		styleRanges.add(5, 10, StyleClass.h1);
+		styleRanges.add(15, 20, StyleClass.h2);
+		styleRanges.add(0, 5, StyleClass.h3);
 		assertStyleRanges(
 				new R(0, 5, StyleClass.h3),
 				new R(5, 10, StyleClass.h1),
@@ -310,9 +308,9 @@ public class TestStyleRanges
 		//      11111
 		//                22222
 		// 3333333333
-		addStyledRange(styleRanges, 5, 10, StyleClass.h1);
-		addStyledRange(styleRanges, 15, 20, StyleClass.h2);
-		addStyledRange(styleRanges, 0, 10, StyleClass.h3);
+		styleRanges.add(5, 10, StyleClass.h1);
+		styleRanges.add(15, 20, StyleClass.h2);
+		styleRanges.add(0, 10, StyleClass.h3);
 		assertStyleRanges(
 				new R(0, 5, StyleClass.h3),
 				new R(5, 10, StyleClass.h1, StyleClass.h3),
@@ -325,9 +323,9 @@ public class TestStyleRanges
 		//      11111
 		//                22222
 		// 3333333333333
-		addStyledRange(styleRanges, 5, 10, StyleClass.h1);
-		addStyledRange(styleRanges, 15, 20, StyleClass.h2);
-		addStyledRange(styleRanges, 0, 13, StyleClass.h3);
+		styleRanges.add(5, 10, StyleClass.h1);
+		styleRanges.add(15, 20, StyleClass.h2);
+		styleRanges.add(0, 13, StyleClass.h3);
 		assertStyleRanges(
 				new R(0, 5, StyleClass.h3),
 				new R(5, 10, StyleClass.h1, StyleClass.h3),
@@ -341,9 +339,9 @@ public class TestStyleRanges
 		//      11111
 		//                22222
 		// 333333333333333
-		addStyledRange(styleRanges, 5, 10, StyleClass.h1);
-		addStyledRange(styleRanges, 15, 20, StyleClass.h2);
-		addStyledRange(styleRanges, 0, 15, StyleClass.h3);
+		styleRanges.add(5, 10, StyleClass.h1);
+		styleRanges.add(15, 20, StyleClass.h2);
+		styleRanges.add(0, 15, StyleClass.h3);
 		assertStyleRanges(
 				new R(0, 5, StyleClass.h3),
 				new R(5, 10, StyleClass.h1, StyleClass.h3),
@@ -351,20 +349,45 @@ public class TestStyleRanges
 				new R(15, 20, StyleClass.h2));
 	}
 
+	@Test
+	public void grow() {
+		// more ranges than initial capacity, inserted at the begin and split
+		for (int i = 999; i >= 0; i--)
+			styleRanges.add(i * 10, i * 10 + 5, StyleClass.h1);
+		styleRanges.add(0, 10000, StyleClass.h2);
+
+		assertEquals(2000, styleRanges.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i * 10, styleRanges.begin(i * 2));
+			assertEquals(i * 10 + 5, styleRanges.end(i * 2));
+			assertEquals(0x3, styleRanges.styleBits(i * 2));
+			assertEquals(i * 10 + 5, styleRanges.begin(i * 2 + 1));
+			assertEquals(i * 10 + 10, styleRanges.end(i * 2 + 1));
+			assertEquals(0x2, styleRanges.styleBits(i * 2 + 1));
+		}
+	}
+
+	@Test
+	public void reuse() {
+		styleRanges.add(10, 20, StyleClass.h1);
+		styleRanges.add(15, 25, StyleClass.h2);
+		styleRanges.clear();
+		styleRanges.add(5, 10, StyleClass.h3);
+		assertStyleRanges(new R(5, 10, StyleClass.h3));
+	}
+
 	private void assertStyleRanges(R... expected) {
 		try {
 			assertEquals(expected.length, styleRanges.size());
 			for (int i = 0; i < expected.length; i++) {
-				StyleRange actual = styleRanges.get(i);
-				assertEquals("begin", expected[i].begin, actual.begin);
-				assertEquals("end", expected[i].end, actual.end);
-				assertEquals("styleBits", expected[i].styleBits, actual.styleBits);
+				assertEquals("begin", expected[i].begin, styleRanges.begin(i));
+				assertEquals("end", expected[i].end, styleRanges.end(i));
+				assertEquals("styleBits", expected[i].styleBits, styleRanges.styleBits(i));
 			}
 		} catch (AssertionError ex) {
 			System.err.println("---- actual ----");
 			for (int i = 0; i < styleRanges.size(); i++) {
-				StyleRange actual = styleRanges.get(i);
-				System.err.printf("%d: %2d-%2d   0x%x\n", i, actual.begin, actual.end, actual.styleBits);
+				System.err.printf("%d: %2d-%2d   0x%x\n", i, styleRanges.begin(i), styleRanges.end(i), styleRanges.styleBits(i));
 			}
 			throw ex;
 		}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2018 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.spellchecker;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * @author Karl Tauber
+ */
+public class TestCheckQueue
+{
+	// blocks: 0-10, 12-20, 20-30, 35-50, 50-60, 70-80
+	private static final int[] START = { 0, 12, 20, 35, 50, 70 };
+	private static final int[] END = { 10, 20, 30, 50, 60, 80 };
+
+	@Test
+	public void documentOrder() {
+		assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), drain(new CheckQueue(START, END)));
+	}
+
+	@Test
+	public void visibleFirst() {
+		CheckQueue queue = new CheckQueue(START, END);
+		queue.setVisibleRange(36, 55);
+		// visible 3, 4; then nearest: 2 (distance 5), 5 (distance 10), 1 (distance 15), 0
+		assertEquals(Arrays.asList(3, 4, 2, 5, 1, 0), drain(queue));
+
+		queue = new CheckQueue(START, END);
+		queue.setVisibleRange(75, 90);
+		assertEquals(Arrays.asList(5, 4, 3, 2, 1, 0), drain(queue));
+
+		queue = new CheckQueue(START, END);
+		queue.setVisibleRange(100, 120);
+		assertEquals(Arrays.asList(5, 4, 3, 2, 1, 0), drain(queue));
+	}
+
+	@Test
+	public void scroll() {
+		CheckQueue queue = new CheckQueue(START, END);
+		queue.setVisibleRange(0, 15);
+		assertEquals(0, queue.next());
+		assertEquals(1, queue.next());
+
+		queue.setVisibleRange(70, 80);
+		assertEquals(5, queue.next());
+		assertEquals(4, queue.next());
+
+		queue.setVisibleRange(0, 15);
+		assertEquals(Arrays.asList(2, 3), drain(queue));
+		assertEquals(-1, queue.next());
+	}
+
+	private static List<Integer> drain(CheckQueue queue) {
+		ArrayList<Integer> result = new ArrayList<>();
+		int index;
+		while ((index = queue.next()) >= 0)
+			result.add(index);
+		return result;
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2018 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.spellchecker;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.languagetool.rules.FakeRule;
+import org.languagetool.rules.RuleMatch;
+
+/**
+ * @author Karl Tauber
+ */
+public class TestSpellProblems
+{
+	private static final FakeRule RULE = new FakeRule();
+
+	@Test
+	public void lookup() {
+		for (int seed = 0; seed < 20; seed++) {
+			Random random = new Random(seed);
+			ArrayList<Ref> refs = new ArrayList<>();
+			SpellProblems spellProblems = createProblems(random, refs);
+
+			int length = refs.get(refs.size() - 1).to + 10;
+			for (int index = 0; index <= length; index++)
+				verifyLookups(spellProblems, index);
+		}
+	}
+
+	@Test
+	public void randomEdits() {
+		for (int seed = 0; seed < 50; seed++) {
+			Random random = new Random(seed);
+			ArrayList<Ref> refs = new ArrayList<>();
+			SpellProblems spellProblems = createProblems(random, refs);
+
+			int length = refs.get(refs.size() - 1).to + 10;
+			for (int i = 0; i < 200; i++) {
+				int position = random.nextInt(length + 1);
+				int removed = random.nextInt(Math.min(length - position, 12) + 1);
+				int inserted = random.nextInt(12);
+
+				spellProblems.updateOffsets(position, inserted, removed);
+				for (Ref ref : refs)
+					ref.updateOffsets(position, inserted, removed);
+				length += inserted - removed;
+
+				verifyOffsets(spellProblems, refs, seed + "/" + i);
+
+				// blocks are reused in new instance (e.g. periodic update)
+				if (i % 50 == 49)
+					spellProblems = new SpellProblems(new ArrayList<>(spellProblems.getBlocks()));
+				for (int j = 0; j < 10; j++)
+					verifyLookups(spellProblems, random.nextInt(length + 1));
+			}
+		}
+	}
+
+	private SpellProblems createProblems(Random random, List<Ref> refs) {
+		ArrayList<SpellBlockProblems> blocks = new ArrayList<>();
+		int pos = random.nextInt(5);
+		for (int i = 0; i < 30; i++) {
+			int blockLength = 5 + random.nextInt(40);
+			ArrayList<RuleMatch> ruleMatches = new ArrayList<>();
+			int problemCount = random.nextInt(4);
+			for (int j = 0; j < problemCount; j++) {
+				int from = random.nextInt(blockLength - 2);
+				int to = from + 1 + random.nextInt(Math.min(blockLength - from - 1, 8));
+				ruleMatches.add(new RuleMatch(RULE, null, from, to, "problem"));
+			}
+
+			SpellBlockProblems blockProblems = new SpellBlockProblems(pos, pos + blockLength, ruleMatches);
+			blocks.add(blockProblems);
+
+			refs.add(new Ref(blockProblems.getFromPos(), blockProblems.getToPos()));
+			for (SpellProblem problem : blockProblems.problems)
+				refs.add(new Ref(problem.getFromPos(), problem.getToPos()));
+
+			pos += blockLength + random.nextInt(3);
+		}
+		return new SpellProblems(blocks);
+	}
+
+	private void verifyOffsets(SpellProblems spellProblems, List<Ref> refs, String msg) {
+		int i = 0;
+		for (SpellBlockProblems blockProblems : spellProblems.getBlocks()) {
+			refs.get(i++).verify(blockProblems, msg);
+			for (SpellProblem problem : blockProblems.problems)
+				refs.get(i++).verify(problem, msg);
+		}
+	}
+
+	private void verifyLookups(SpellProblems spellProblems, int index) {
+		// brute force
+		ArrayList<SpellProblem> problemsAt = new ArrayList<>();
+		SpellProblem next = null;
+		SpellProblem previous = null;
+		for (SpellBlockProblems blockProblems : spellProblems.getBlocks()) {
+			if (!blockProblems.isValid())
+				continue;
+
+			for (SpellProblem problem : blockProblems.problems) {
+				if (!problem.isValid())
+					continue;
+
+				if (blockProblems.contains(index) && problem.contains(index))
+					problemsAt.add(problem);
+				if (next == null && index < blockProblems.getToPos() && index < problem.getToPos())
+					next = problem;
+				if (index > blockProblems.getFromPos() && index > problem.getFromPos())
+					previous = problem;
+			}
+		}
+
+		assertEquals("at " + index, problemsAt, spellProblems.getProblemsAt(index));
+		assertSame("next " + index, next, spellProblems.findNextProblemAt(index));
+		assertSame("previous " + index, previous, spellProblems.findPreviousProblemAt(index));
+	}
+
+	//---- class Ref ----------------------------------------------------------
+
+	/**
+	 * Reference implementation of SpellRange.updateOffsets().
+	 */
+	private static class Ref
+	{
+		int from;
+		int to;
+		boolean valid = true;
+
+		Ref(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		void updateOffsets(int position, int inserted, int removed) {
+			if (position > to)
+				return;
+
+			int diff = inserted - removed;
+			if (position + removed <= from) {
+				from += diff;
+				to += diff;
+			} else if (position >= from) {
+				if (position + removed <= to)
+					to += diff;
+				else
+					to = position;
+			} else {
+				if (position + removed <= to) {
+					from = position + inserted;
+					to += diff;
+				} else {
+					valid = false;
+					from = to = position;
+				}
+			}
+		}
+
+		void verify(SpellRange range, String msg) {
+			assertEquals(msg, valid, range.isValid());
+			if (valid) {
+				assertEquals(msg, from, range.getFromPos());
+				assertEquals(msg, to, range.getToPos());
+			}
+		}
+	}
+}
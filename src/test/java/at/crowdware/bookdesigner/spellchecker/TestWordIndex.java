@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2018 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package at.crowdware.bookdesigner.spellchecker;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+
+/**
+ * @author Karl Tauber
+ */
+public class TestWordIndex
+{
+	@Test
+	public void splitWords() {
+		assertEquals(Arrays.asList("the", "e", "mail", "of", "bookdesigner", "2"),
+			WordIndex.splitWords("The e-mail of BookDesigner 2."));
+		assertEquals(Collections.emptyList(), WordIndex.splitWords(" -- "));
+	}
+
+	@Test
+	public void remove() {
+		String key1 = "This is a sentence.";
+		String key2 = "Another sentence with BookDesigner.";
+		String key3 = "Write an e-mail to BookDesigner users.";
+		String key4 = "Books are designed.";
+
+		WordIndex index = new WordIndex(k -> true);
+		index.add(key1);
+		index.add(key2);
+		index.add(key3);
+		index.add(key4);
+
+		assertEquals(new HashSet<>(Arrays.asList(key2, key3)), new HashSet<>(index.remove("BookDesigner")));
+		assertEquals(Collections.emptyList(), index.remove("BookDesigner"));
+		assertEquals(Collections.emptyList(), index.remove("Book"));
+		assertEquals(Arrays.asList(key4), index.remove("DESIGNED"));
+		assertEquals(Arrays.asList(key1), index.remove("this"));
+		assertNull(index.remove("--"));
+
+		index.clear();
+		assertEquals(0, index.size());
+	}
+
+	@Test
+	public void removeHyphenated() {
+		String key = "Write an e-mail.";
+		WordIndex index = new WordIndex(k -> true);
+		index.add(key);
+		index.add("Send mail.");
+
+		assertEquals(Arrays.asList(key), index.remove("e-mail"));
+		assertEquals(Collections.emptyList(), index.remove("e-mail"));
+	}
+
+	@Test
+	public void evictAndReinsert() {
+		Set<Object> cache = new HashSet<>();
+		WordIndex index = new WordIndex(cache::contains);
+
+		// cache and index k1
+		String k1 = new String("Hello wrold.");
+		cache.add(k1);
+		index.add(k1);
+
+		// evict k1 and cache an equal (but not identical) key k2
+		cache.remove(k1);
+		String k2 = new String("Hello wrold.");
+		cache.add(k2);
+		index.add(k2);
+		k1 = null;
+		System.gc();
+
+		// sentence is still found (the indexed key is equal to k2)
+		assertEquals(Arrays.asList(k2), index.remove("wrold"));
+	}
+
+	@Test
+	public void pruneEvicted() {
+		Set<Object> cache = new HashSet<>();
+		WordIndex index = new WordIndex(cache::contains);
+
+		for (int i = 0; i < 5000; i++) {
+			String key = "sentence " + i;
+			cache.add(key);
+			index.add(key);
+
+			// keep only the last 100 keys in cache
+			if (i >= 100)
+				cache.remove("sentence " + (i - 100));
+		}
+
+		// evicted keys were pruned (when the number of keys doubled)
+		assertTrue(index.getKeyCount() < 2100);
+		index.prune();
+		assertEquals(100, index.getKeyCount());
+		assertEquals(101, index.size());
+		assertEquals(100, index.remove("sentence").size());
+		assertEquals(0, index.getKeyCount());
+		assertEquals(0, index.size());
+	}
+}
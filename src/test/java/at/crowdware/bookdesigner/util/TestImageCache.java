@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2018 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package at.crowdware.bookdesigner.util;
+
+import static org.junit.Assert.*;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.WritableImage;
+import org.junit.Test;
+
+/**
+ * @author Karl Tauber
+ */
+public class TestImageCache
+{
+	private static final long IMAGE_BYTES = 10 * 10 * 4;
+
+	@Test
+	public void lru() {
+		ImageCache cache = new ImageCache(3 * IMAGE_BYTES);
+		Image a = image(), b = image(), c = image(), d = image();
+		cache.put("a", a, 1);
+		cache.put("b", b, 1);
+		cache.put("c", c, 1);
+		assertEquals(3 * IMAGE_BYTES, cache.getBytes());
+
+		// access "a" so that "b" is least recently used
+		assertSame(a, cache.get("a", 1));
+		cache.put("d", d, 1);
+
+		assertNull(cache.get("b", 1));
+		assertSame(a, cache.get("a", 1));
+		assertSame(c, cache.get("c", 1));
+		assertSame(d, cache.get("d", 1));
+		assertEquals(3, cache.getImageCount());
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(4, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+
+		cache.setMaxBytes(IMAGE_BYTES);
+		assertEquals(1, cache.getImageCount());
+		assertSame(d, cache.get("d", 1));
+	}
+
+	@Test
+	public void modified() {
+		ImageCache cache = new ImageCache(3 * IMAGE_BYTES);
+		cache.put("a", image(), 1);
+		assertNull(cache.get("a", 2));
+		assertEquals(0, cache.getImageCount());
+		assertEquals(0, cache.getBytes());
+	}
+
+	@Test
+	public void tooLarge() {
+		ImageCache cache = new ImageCache(IMAGE_BYTES - 1);
+		cache.put("a", image(), 1);
+		assertNull(cache.get("a", 1));
+		assertEquals(0, cache.getBytes());
+	}
+
+	private static Image image() {
+		return new WritableImage(10, 10);
+	}
+}